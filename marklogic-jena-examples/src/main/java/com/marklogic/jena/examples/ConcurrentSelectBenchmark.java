@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.jena.examples;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.marklogic.semantics.jena.MarkLogicDatasetGraph;
+
+/**
+ * This is a jmh benchmark that runs the same LIMIT query from one thread
+ * and from 32 threads sharing one MarkLogicDatasetGraph.  With no
+ * client-side lock around SELECT, the 32-thread throughput should
+ * grow until the server, not the client, is the bottleneck.
+ * Run it with "gradlew marklogic-jena-examples:jmh"
+ */
+@State(value = Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ConcurrentSelectBenchmark {
+
+    private static final String QUERY = "select ?s ?p ?o { ?s ?p ?o } limit 50";
+
+    private MarkLogicDatasetGraph markLogicDatasetGraph;
+    private Dataset dataset;
+
+    @Setup
+    public void configure() {
+        markLogicDatasetGraph = ExampleUtils.loadPropsAndInit();
+        RDFDataMgr.read(markLogicDatasetGraph, "test.owl", Lang.RDFXML);
+        markLogicDatasetGraph.sync();
+        dataset = DatasetFactory.wrap(markLogicDatasetGraph);
+    }
+
+    @TearDown
+    public void close() {
+        markLogicDatasetGraph.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void selectOneThread(Blackhole blackhole) {
+        select(blackhole);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void selectThirtyTwoThreads(Blackhole blackhole) {
+        select(blackhole);
+    }
+
+    private void select(Blackhole blackhole) {
+        try (QueryExecution exec = QueryExecutionFactory.create(QUERY, dataset)) {
+            ResultSet results = exec.execSelect();
+            while (results.hasNext()) {
+                blackhole.consume(results.next());
+            }
+        }
+    }
+}
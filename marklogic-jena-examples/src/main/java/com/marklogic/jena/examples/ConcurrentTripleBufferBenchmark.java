@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.jena.examples;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.marklogic.semantics.jena.client.TripleBuffer;
+
+/**
+ * This is a jmh benchmark that measures how many quads several threads
+ * can add to one client-side write buffer.  The "monitor" buffer takes
+ * a single lock on every add, as the buffer did before it was striped,
+ * for comparison.  No server is needed; full batches are dropped.
+ * Run it with "gradlew marklogic-jena-examples:jmh"
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConcurrentTripleBufferBenchmark {
+
+    /**
+     * A buffer that drops every batch it flushes.
+     */
+    static class DroppingBuffer extends TripleBuffer {
+
+        DroppingBuffer(long batchSize) {
+            super(null);
+            this.cacheSize = batchSize;
+        }
+
+        @Override
+        protected void write(Mutations batch) {
+            // only the adds are measured
+        }
+    }
+
+    /**
+     * A buffer whose adds all wait on the same lock.
+     */
+    static class MonitorBuffer extends DroppingBuffer {
+
+        MonitorBuffer(long batchSize) {
+            super(batchSize);
+        }
+
+        @Override
+        public synchronized void add(Node g, Node s, Node p, Node o) {
+            super.add(g, s, p, o);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+
+        @Param({ "striped", "monitor" })
+        public String buffer;
+
+        @Param({ "1", "16" })
+        public int graphs;
+
+        TripleBuffer tripleBuffer;
+        Node[] graphNodes;
+        final Node predicate = NodeFactory.createURI("http://example.org/p");
+        final Node object = NodeFactory.createLiteral("o");
+        final AtomicInteger producers = new AtomicInteger();
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            tripleBuffer = "monitor".equals(buffer)
+                    ? new MonitorBuffer(10000) : new DroppingBuffer(10000);
+            graphNodes = new Node[graphs];
+            for (int i = 0; i < graphs; i++) {
+                graphNodes[i] = NodeFactory.createURI("http://example.org/g" + i);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+
+        String prefix;
+        long next;
+
+        @Setup(Level.Iteration)
+        public void setUp(Shared shared) {
+            prefix = "http://example.org/t" + shared.producers.incrementAndGet() + "/s";
+        }
+    }
+
+    private static void addNext(Shared shared, Producer producer) {
+        long n = producer.next++;
+        shared.tripleBuffer.add(shared.graphNodes[(int) (n % shared.graphs)],
+                NodeFactory.createURI(producer.prefix + n),
+                shared.predicate, shared.object);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void add1Thread(Shared shared, Producer producer) {
+        addNext(shared, producer);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void add4Threads(Shared shared, Producer producer) {
+        addNext(shared, producer);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void add16Threads(Shared shared, Producer producer) {
+        addNext(shared, producer);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void add64Threads(Shared shared, Producer producer) {
+        addNext(shared, producer);
+    }
+
+}
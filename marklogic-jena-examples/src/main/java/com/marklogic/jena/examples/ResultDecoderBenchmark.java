@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.jena.examples;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.marklogic.semantics.jena.client.JenaResultDecoder;
+import com.marklogic.semantics.jena.client.ResultDecoder;
+import com.marklogic.semantics.jena.client.SelectResultFormat;
+import com.marklogic.semantics.jena.client.SparqlJsonDecoder;
+
+/**
+ * This is a jmh benchmark of the SELECT result decoders, on canned
+ * {@link ResultFixtures} so that no server is needed.  Each operation
+ * decodes one row, so the score is rows per second, and the gc
+ * profiler's gc.alloc.rate.norm is the allocation per row.  Decoding
+ * starts over on the same bytes when the rows run out.
+ * Run it with "gradlew marklogic-jena-examples:jmh"
+ */
+@State(value = Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ResultDecoderBenchmark {
+
+    public enum Decoder {
+        JENA_XML(SelectResultFormat.XML, new JenaResultDecoder(SelectResultFormat.XML.getLang())),
+        JENA_JSON(SelectResultFormat.JSON, new JenaResultDecoder(SelectResultFormat.JSON.getLang())),
+        JENA_TSV(SelectResultFormat.TSV, new JenaResultDecoder(SelectResultFormat.TSV.getLang())),
+        SCANNER_JSON(SelectResultFormat.JSON, new SparqlJsonDecoder());
+
+        private final SelectResultFormat format;
+        private final ResultDecoder decoder;
+
+        Decoder(SelectResultFormat format, ResultDecoder decoder) {
+            this.format = format;
+            this.decoder = decoder;
+        }
+    }
+
+    @Param({ "10000", "100000" })
+    public int rows;
+
+    @Param({ "JENA_XML", "JENA_JSON", "JENA_TSV", "SCANNER_JSON" })
+    public Decoder decoder;
+
+    private byte[] payload;
+    private ResultSet results;
+
+    @Setup
+    public void load() {
+        payload = ResultFixtures.selectResults(rows, decoder.format.getLang());
+        results = open();
+    }
+
+    private ResultSet open() {
+        return decoder.decoder.decode(new ByteArrayInputStream(payload));
+    }
+
+    @Benchmark
+    public Binding decodeRow() {
+        if (!results.hasNext()) {
+            results = open();
+        }
+        return results.nextBinding();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.jena.examples;
+
+import java.io.ByteArrayOutputStream;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.ResultSetMgr;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.graph.GraphFactory;
+
+/**
+ * Canned results for the parse benchmarks, shaped like a typical
+ * MarkLogic extract: a few hundred distinct classes and predicates
+ * repeated across many subjects, with language-tagged and typed literals.
+ * The same row count always gives the same bytes.
+ */
+public class ResultFixtures {
+
+    private ResultFixtures() {
+    }
+
+    /**
+     * @param rows the number of triples.
+     * @return a graph of that many triples.
+     */
+    public static Graph graph(int rows) {
+        Graph graph = GraphFactory.createDefaultGraph();
+        Node type = NodeFactory.createURI("http://example.org/vocab#type");
+        Node label = NodeFactory.createURI("http://example.org/vocab#label");
+        Node count = NodeFactory.createURI("http://example.org/vocab#count");
+        for (int i = 0; i < rows; i++) {
+            Node subject = NodeFactory.createURI("http://example.org/resource/" + (i / 3));
+            switch (i % 3) {
+            case 0:
+                graph.add(Triple.create(subject, type, NodeFactory
+                        .createURI("http://example.org/class/" + (i % 200))));
+                break;
+            case 1:
+                graph.add(Triple.create(subject, label, NodeFactory
+                        .createLiteral("label number " + i, "en")));
+                break;
+            default:
+                graph.add(Triple.create(subject, count, NodeFactory
+                        .createLiteral(Integer.toString(i), XSDDatatype.XSDint)));
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * @param rows the number of solutions.
+     * @param lang a result set language.
+     * @return SELECT ?s ?p ?o results, serialized in lang.
+     */
+    public static byte[] selectResults(int rows, Lang lang) {
+        Dataset dataset = DatasetFactory.wrap(DatasetGraphFactory.wrap(graph(rows)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (QueryExecution exec = QueryExecutionFactory.create(
+                "SELECT ?s ?p ?o WHERE { ?s ?p ?o }", dataset)) {
+            ResultSetMgr.write(out, exec.execSelect(), lang);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param rows the number of triples.
+     * @param lang an RDF language.
+     * @return the triples of {@link #graph(int)}, serialized in lang.
+     */
+    public static byte[] graphResults(int rows, Lang lang) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RDFDataMgr.write(out, graph(rows), lang);
+        return out.toByteArray();
+    }
+}
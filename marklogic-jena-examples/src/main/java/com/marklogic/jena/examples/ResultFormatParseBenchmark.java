@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.jena.examples;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.ResultSetMgr;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.marklogic.semantics.jena.client.GraphResultFormat;
+import com.marklogic.semantics.jena.client.SelectResultFormat;
+
+/**
+ * This is a jmh benchmark that compares how fast each result format can
+ * be parsed.  The results are canned {@link ResultFixtures}, so no
+ * server is needed; the payload size of each format is
+ * printed once so that transfer cost can be weighed against parse cost.
+ * Run it with "gradlew marklogic-jena-examples:jmh"
+ */
+@State(value = Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ResultFormatParseBenchmark {
+
+    @Param({ "10000", "100000" })
+    public int rows;
+
+    @Param({ "XML", "JSON", "TSV", "CSV" })
+    public SelectResultFormat selectFormat;
+
+    @Param({ "NTRIPLES", "TURTLE" })
+    public GraphResultFormat graphFormat;
+
+    private byte[] selectPayload;
+    private byte[] graphPayload;
+
+    @Setup
+    public void serialize() {
+        selectPayload = ResultFixtures.selectResults(rows, selectFormat.getLang());
+        graphPayload = ResultFixtures.graphResults(rows, graphFormat.getLang());
+        System.out.println(selectFormat + " SELECT payload: " + selectPayload.length
+                + " bytes, " + graphFormat + " CONSTRUCT payload: "
+                + graphPayload.length + " bytes");
+    }
+
+    @Benchmark
+    public void parseSelect(Blackhole blackhole) {
+        ResultSet results = ResultSetMgr.read(
+                new ByteArrayInputStream(selectPayload), selectFormat.getLang());
+        while (results.hasNext()) {
+            blackhole.consume(results.nextBinding());
+        }
+    }
+
+    @Benchmark
+    public void parseConstruct(Blackhole blackhole) {
+        RDFParser.source(new ByteArrayInputStream(graphPayload))
+                .lang(graphFormat.getLang()).parse(new StreamRDFBase() {
+                    @Override
+                    public void triple(Triple triple) {
+                        blackhole.consume(triple);
+                    }
+                });
+    }
+}
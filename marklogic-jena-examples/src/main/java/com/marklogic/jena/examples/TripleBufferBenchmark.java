@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.jena.examples;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.marklogic.semantics.jena.client.TripleBuffer;
+
+/**
+ * This is a jmh benchmark that measures the cost of adding a quad to
+ * the client-side write buffer as the buffer fills up, with the adds
+ * held as triples or encoded off the heap.  No server is needed; the
+ * buffer under test never flushes.
+ * Run it with "gradlew marklogic-jena-examples:jmh"
+ */
+@State(value = Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TripleBufferBenchmark {
+
+    /**
+     * A buffer that holds everything it is given.
+     */
+    static class HoldingBuffer extends TripleBuffer {
+
+        HoldingBuffer(boolean encoded) {
+            super(null);
+            this.cacheSize = Long.MAX_VALUE;
+            this.encodeAdds = encoded;
+        }
+
+        @Override
+        protected void write(Mutations batch) {
+            // never reached, the cache size is unbounded
+        }
+    }
+
+    @Param({ "0", "10000", "100000", "500000" })
+    public int prefill;
+
+    @Param({ "1", "1000" })
+    public int graphs;
+
+    @Param({ "false", "true" })
+    public boolean encoded;
+
+    private HoldingBuffer buffer;
+    private Node[] graphNodes;
+    private Node predicate;
+    private Node object;
+    private long next;
+
+    @Setup(Level.Iteration)
+    public void fill() {
+        buffer = new HoldingBuffer(encoded);
+        graphNodes = new Node[graphs];
+        for (int i = 0; i < graphs; i++) {
+            graphNodes[i] = NodeFactory.createURI("http://example.org/g" + i);
+        }
+        predicate = NodeFactory.createURI("http://example.org/p");
+        object = NodeFactory.createLiteral("o");
+        for (next = 0; next < prefill; next++) {
+            addNext();
+        }
+    }
+
+    private void addNext() {
+        buffer.add(graphNodes[(int) (next % graphs)],
+                NodeFactory.createURI("http://example.org/s" + next),
+                predicate, object);
+    }
+
+    @Benchmark
+    public void addQuad() {
+        addNext();
+        next++;
+    }
+
+}
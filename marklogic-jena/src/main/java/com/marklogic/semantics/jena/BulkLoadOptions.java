@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena;
+
+/**
+ * Settings for {@link MarkLogicDatasetGraph#bulkLoad}.  Create one with
+ * the default constructor and adjust it with the fluent setters.
+ */
+public class BulkLoadOptions {
+
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final long DEFAULT_RETRY_DELAY_MILLIS = 500;
+
+    private int threads = DEFAULT_THREADS;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private long retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+
+    /**
+     * Fluent setter for the number of batches written concurrently.
+     * 
+     * @param threads
+     *            At least one.
+     * @return The options, with threads set.
+     */
+    public BulkLoadOptions withThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Fluent setter for the number of triples sent in each batch.
+     * 
+     * @param batchSize
+     *            At least one.
+     * @return The options, with batch size set.
+     */
+    public BulkLoadOptions withBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Fluent setter for the number of times a failed batch is retried
+     * before the load is abandoned.
+     * 
+     * @param maxRetries
+     *            Zero or more.
+     * @return The options, with retries set.
+     */
+    public BulkLoadOptions withMaxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must not be negative");
+        }
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Fluent setter for the pause before retrying a failed batch.  The
+     * pause grows linearly with each attempt.
+     * 
+     * @param retryDelayMillis
+     *            The pause before the first retry, in milliseconds.
+     * @return The options, with retry delay set.
+     */
+    public BulkLoadOptions withRetryDelayMillis(long retryDelayMillis) {
+        this.retryDelayMillis = retryDelayMillis;
+        return this;
+    }
+
+    public long getRetryDelayMillis() {
+        return retryDelayMillis;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena;
+
+/**
+ * How much of the client-side write buffers a MarkLogicDatasetGraph
+ * flushes before it reads from MarkLogic.
+ *
+ * @see MarkLogicDatasetGraphOptions#withConsistencyMode(ConsistencyMode)
+ */
+public enum ConsistencyMode {
+    /**
+     * Every read flushes every buffered add and delete first, so reads
+     * see all earlier writes.
+     */
+    STRICT,
+    /**
+     * A read flushes only the buffered writes to the graphs it reads.
+     * find(), contains() and size() on one graph, and SPARQL queries
+     * with FROM or FROM NAMED, see earlier writes to those graphs; reads
+     * over every graph flush everything, as STRICT does.
+     */
+    GRAPH_SCOPED,
+    /**
+     * Reads flush nothing.  Buffered writes reach MarkLogic when the
+     * buffers fill or their flush interval passes, or on sync() and
+     * commit(), and reads may not see them until then.
+     */
+    EVENTUAL
+}
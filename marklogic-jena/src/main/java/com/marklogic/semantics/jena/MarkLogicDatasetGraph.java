@@ -21,34 +21,53 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
+import org.apache.jena.query.Query;
 import org.apache.jena.query.TxnType;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.out.NodeFmtLib;
 import org.apache.jena.riot.system.PrefixMap;
 import org.apache.jena.riot.system.PrefixMapFactory;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFLib;
 import org.apache.jena.sparql.core.*;
+import org.apache.jena.sparql.engine.binding.Binding;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.jena.graph.Graph;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.query.DatasetFactory;
 import org.apache.jena.query.ReadWrite;
+import org.apache.jena.query.ResultSet;
 import org.apache.jena.shared.Lock;
 import org.apache.jena.shared.LockNone;
-import com.marklogic.client.io.InputStreamHandle;
+import org.apache.jena.util.iterator.ClosableIterator;
 import com.marklogic.client.query.QueryDefinition;
 import com.marklogic.client.semantics.GraphPermissions;
 import com.marklogic.client.semantics.RDFTypes;
 import com.marklogic.client.semantics.SPARQLBindings;
 import com.marklogic.client.semantics.SPARQLQueryDefinition;
 import com.marklogic.client.semantics.SPARQLRuleset;
+import com.marklogic.semantics.jena.client.BulkLoader;
+import com.marklogic.semantics.jena.client.CountCache;
+import com.marklogic.semantics.jena.client.FindCache;
 import com.marklogic.semantics.jena.client.JenaDatabaseClient;
+import com.marklogic.semantics.jena.client.PagedQuadsIterator;
 import com.marklogic.semantics.jena.client.QuadsIterator;
 import com.marklogic.semantics.jena.client.WrappingIterator;
+import com.marklogic.semantics.jena.engine.MarkLogicQueryEngine;
 
 /**
  * A representation of MarkLogic's triple store as a DatasetGraph, plus a few
@@ -68,6 +87,37 @@ import com.marklogic.semantics.jena.client.WrappingIterator;
 public class MarkLogicDatasetGraph extends DatasetGraphTriplesQuads {
 
     public static final String DEFAULT_GRAPH_URI = "http://marklogic.com/semantics#default-graph";
+
+    /*
+     * MarkLogic keeps the default graph as a graph of its own, which
+     * GRAPH ?g also matches.  Every query over the named graphs leaves
+     * it out with this filter, as Jena's union graph does.
+     */
+    private static final String NAMED_GRAPH_FILTER = "FILTER (?g != <"
+            + DEFAULT_GRAPH_URI + ">) ";
+
+    /*
+     * The queries behind size() and graphSize()
+     */
+    private static final String GRAPH_COUNT_QUERY = "SELECT (COUNT(DISTINCT ?g) AS ?count) "
+            + "WHERE { GRAPH ?g { ?s ?p ?o } " + NAMED_GRAPH_FILTER + "}";
+    private static final String TRIPLE_COUNT_QUERY = "SELECT (COUNT(*) AS ?count) WHERE { ?s ?p ?o }";
+    private static final String UNION_COUNT_QUERY = "SELECT (COUNT(*) AS ?count) "
+            + "WHERE { SELECT DISTINCT ?s ?p ?o WHERE { GRAPH ?g { ?s ?p ?o } "
+            + NAMED_GRAPH_FILTER + "} }";
+    private static final Var COUNT = Var.alloc("count");
+
+    /*
+     * The most VALUES rows sent in one request by containedQuads() and
+     * findAll()
+     */
+    private static final int VALUES_BATCH_SIZE = 500;
+    private static final Var INDEX = Var.alloc("i");
+    private static final Var G = Var.alloc("g");
+    private static final Var S = Var.alloc("s");
+    private static final Var P = Var.alloc("p");
+    private static final Var O = Var.alloc("o");
+
     private static Logger log = LoggerFactory
             .getLogger(MarkLogicDatasetGraph.class);
 
@@ -84,6 +134,24 @@ public class MarkLogicDatasetGraph extends DatasetGraphTriplesQuads {
     private QueryDefinition constrainingQueryDefinition;
     private GraphPermissions updatePermissions;
 
+    /*
+     * When positive, find() results are fetched in pages of this size
+     */
+    private long findPageSize;
+
+    /*
+     * Caches find() results when the options ask for it, otherwise null
+     */
+    private FindCache findCache;
+
+    /*
+     * Keeps size() results for a short time when the options ask for it,
+     * otherwise null
+     */
+    private CountCache countCache;
+
+    private ConsistencyMode consistencyMode;
+
     /**
      * Creates a new MarkLogicDatasetGraph using the supplied DatabaseClient. If
      * this client can write to the database, then the DatasetGraph is
@@ -97,7 +165,36 @@ public class MarkLogicDatasetGraph extends DatasetGraphTriplesQuads {
      *            DatabaseClientFactory.
      */
     public MarkLogicDatasetGraph(JenaDatabaseClient jenaClient) {
+        this(jenaClient, new MarkLogicDatasetGraphOptions());
+    }
+
+    /**
+     * Creates a new MarkLogicDatasetGraph using the supplied DatabaseClient,
+     * with the read settings from options.  Buffer and write settings
+     * are taken by the JenaDatabaseClient itself.
+     *
+     * @param jenaClient
+     *            specifies the connection to the MarkLogic server.
+     * @param options
+     *            tuning settings for this dataset graph.
+     */
+    public MarkLogicDatasetGraph(JenaDatabaseClient jenaClient,
+            MarkLogicDatasetGraphOptions options) {
         this.client = jenaClient;
+        this.findPageSize = options.getFindPageSize();
+        this.consistencyMode = options.getConsistencyMode();
+        if (options.getFindCacheSize() > 0) {
+            this.findCache = new FindCache(options.getFindCacheSize(),
+                    options.getFindCacheMaxQuads());
+        }
+        if (options.getSizeCacheMillis() > 0) {
+            this.countCache = new CountCache(options.getSizeCacheMillis());
+        }
+        if (findCache != null || countCache != null) {
+            // a read that did not wait for buffered writes, as with
+            // EVENTUAL, may have cached what they have since changed
+            client.setWriteListener(graphs -> graphs.forEach(this::invalidate));
+        }
     }
 
     /**
@@ -107,7 +204,7 @@ public class MarkLogicDatasetGraph extends DatasetGraphTriplesQuads {
     public Iterator<Node> listGraphNodes() {
         log.debug("listing graphs ");
         checkIsOpen();
-        sync();
+        syncForRead(Node.ANY);
         Iterator<String> graphNames = client.listGraphUris();
         return new WrappingIterator(graphNames);
     }
@@ -131,6 +228,7 @@ public class MarkLogicDatasetGraph extends DatasetGraphTriplesQuads {
         String query = "DROP SILENT ALL";
         SPARQLQueryDefinition qdef = client.newQueryDefinition(query);
         client.executeUpdate(qdef);
+        invalidateAll();
     }
 
     /**
@@ -189,9 +287,19 @@ public class MarkLogicDatasetGraph extends DatasetGraphTriplesQuads {
         Node p1 = skolemize(p);
         Node o1 = skolemize(o);
         client.sinkQuad(null, s1, p1, o1);
+        invalidate(null);
     }
 
-    private Node skolemize(Node s) {
+    /**
+     * Replaces a blank node with a MarkLogic-specific IRI, so that it keeps
+     * its identity across separate requests to the server.  Other nodes are
+     * returned unchanged.
+     * 
+     * @param s
+     *            An RDF node.
+     * @return The node, or its skolem IRI if it is blank.
+     */
+    public static Node skolemize(Node s) {
         if (s.isBlank()) {
             return NodeFactory
                     .createURI("http://marklogic.com/semantics/blank/"
@@ -212,6 +320,7 @@ public class MarkLogicDatasetGraph extends DatasetGraphTriplesQuads {
         Node p1 = skolemize(p);
         Node o1 = skolemize(o);
         client.sinkQuad(g, s1, p1, o1);
+        invalidate(g);
     }
 
     /**
@@ -220,11 +329,11 @@ public class MarkLogicDatasetGraph extends DatasetGraphTriplesQuads {
     @Override
     protected void deleteFromDftGraph(Node s, Node p, Node o) {
         checkIsOpen();
-        syncAdds();
         Node s1 = skolemize(s);
         Node p1 = skolemize(p);
         Node o1 = skolemize(o);
         client.sinkDelete(null, s1, p1, o1);
+        invalidate(null);
     }
 
     /**
@@ -233,43 +342,115 @@ public class MarkLogicDatasetGraph extends DatasetGraphTriplesQuads {
     @Override
     protected void deleteFromNamedGraph(Node g, Node s, Node p, Node o) {
         checkIsOpen();
-        syncAdds();
         Node s1 = skolemize(s);
         Node p1 = skolemize(p);
         Node o1 = skolemize(o);
-        client.sinkDelete(g, s, p, o);
+        client.sinkDelete(g, s1, p1, o1);
+        invalidate(g);
     }
 
-    private InputStream selectTriplesInGraph(String graphName, Node s, Node p,
-            Node o) {
+    /*
+     * Writes a SELECT for the triples matching a pattern.  Concrete terms
+     * are written into the triple pattern itself, so that MarkLogic can
+     * answer with an index lookup instead of scanning every triple and
+     * filtering.  Only the wildcard positions are selected; QuadsIterator
+     * fills in the concrete ones.
+     */
+    static String selectTriplesQuery(Node s, Node p, Node o,
+            boolean inAnyNamedGraph) {
+        return selectTriplesQuery(s, p, o, inAnyNamedGraph, false);
+    }
+
+    /*
+     * As above.  When ordered, the results are sorted on every selected
+     * term, so that pages fetched with OFFSET and LIMIT do not overlap
+     * or leave gaps.
+     */
+    static String selectTriplesQuery(Node s, Node p, Node o,
+            boolean inAnyNamedGraph, boolean ordered) {
+        StringBuilder select = new StringBuilder("SELECT");
+        StringBuilder pattern = new StringBuilder();
+        if (inAnyNamedGraph) {
+            select.append(" ?g");
+            pattern.append("GRAPH ?g { ");
+        }
+        appendPatternTerm(select, pattern, "s", s);
+        appendPatternTerm(select, pattern, "p", p);
+        appendPatternTerm(select, pattern, "o", o);
+        if (inAnyNamedGraph) {
+            pattern.append("} ").append(NAMED_GRAPH_FILTER);
+        }
+        String orderBy = "";
+        if (select.length() == "SELECT".length()) {
+            select.append(" *");
+        } else if (ordered) {
+            orderBy = " ORDER BY" + select.substring("SELECT".length());
+        }
+        return select.append(" WHERE { ").append(pattern).append("}")
+                .append(orderBy).toString();
+    }
+
+    private static void appendPatternTerm(StringBuilder select,
+            StringBuilder pattern, String variableName, Node node) {
+        if (node == Node.ANY) {
+            if (select != null) {
+                select.append(" ?").append(variableName);
+            }
+            pattern.append("?").append(variableName).append(" ");
+        } else {
+            pattern.append(NodeFmtLib.strNT(node)).append(" ");
+        }
+    }
+
+    private static Node patternNode(Node n) {
+        return n == null ? Node.ANY : skolemize(n);
+    }
+
+    private static Node fixedNode(Node n) {
+        return n == Node.ANY ? null : n;
+    }
+
+    /*
+     * Runs a find() query against one graph, or against every named graph
+     * if graphName is null.  Answers from the find cache if there is one.
+     */
+    private Iterator<Quad> findQuads(String graphName, Node g, Node s,
+            Node p, Node o) {
         checkIsOpen();
-        Node s1 = s != null ? s : Node.ANY;
-        Node p1 = p != null ? p : Node.ANY;
-        Node o1 = o != null ? o : Node.ANY;
-        Node s2 = skolemize(s1);
-        Node p2 = skolemize(p1);
-        Node o2 = skolemize(o1);
-        SPARQLQueryDefinition qdef = client.newQueryDefinition("");
-        StringBuilder sb = new StringBuilder();
-        sb.append("SELECT ?s ?p ?o where { ?s ?p ?o .");
-        if (s2 != Node.ANY) {
-            qdef.withBinding("a", s2.getURI());
-            sb.append("FILTER (?s = ?a) ");
+        Node s1 = patternNode(s);
+        Node p1 = patternNode(p);
+        Node o1 = patternNode(o);
+        if (findCache == null) {
+            return selectQuads(graphName, g, s1, p1, o1);
         }
-        if (p2 != Node.ANY) {
-            qdef.withBinding("b", p2.getURI());
-            sb.append("FILTER (?p = ?b) ");
+        List<Quad> cached = findCache.get(graphName, s1, p1, o1);
+        if (cached != null) {
+            return cached.iterator();
         }
-        if (o2 != Node.ANY) {
-            qdef = bindObject(qdef, "c", o2);
-            sb.append("FILTER (?o = ?c) ");
+        FindCache.Stamp stamp = findCache.stamp(graphName);
+        return findCache.record(graphName, s1, p1, o1,
+                selectQuads(graphName, g, s1, p1, o1), stamp);
+    }
+
+    /*
+     * Sends a find() query, paging the results if a find page size is set.
+     */
+    private ClosableIterator<Quad> selectQuads(String graphName, Node g, Node s1,
+            Node p1, Node o1) {
+        SPARQLQueryDefinition qdef = client.newQueryDefinition(
+                selectTriplesQuery(s1, p1, o1, graphName == null,
+                        findPageSize > 0));
+        if (graphName != null) {
+            qdef.setDefaultGraphUris(graphName);
+        }
+        if (findPageSize > 0) {
+            return new PagedQuadsIterator(client, qdef, findPageSize, g,
+                    fixedNode(s1), fixedNode(p1), fixedNode(o1));
         }
-        sb.append("}");
-        qdef.setSparql(sb.toString());
-        qdef.setDefaultGraphUris(graphName);
-        InputStreamHandle results = client.executeSelect(qdef,
-                new InputStreamHandle());
-        return results.get();
+        ResultSet results = client.executeSelectStreaming(qdef, null, null,
+                client.getSelectResultFormat().preservingTerms());
+        return new QuadsIterator(results, client.getNodeCache(), g,
+                fixedNode(s1), fixedNode(p1), fixedNode(o1));
     }
 
     /**
@@ -278,9 +459,8 @@ public class MarkLogicDatasetGraph extends DatasetGraphTriplesQuads {
     @Override
     protected Iterator<Quad> findInDftGraph(Node s, Node p, Node o) {
         checkIsOpen();
-        sync();
-        InputStream results = selectTriplesInGraph(DEFAULT_GRAPH_URI, s, p, o);
-        return new QuadsIterator(results);
+        syncForRead(Quad.defaultGraphIRI);
+        return findQuads(DEFAULT_GRAPH_URI, null, s, p, o);
     }
 
     /**
@@ -290,9 +470,8 @@ public class MarkLogicDatasetGraph extends DatasetGraphTriplesQuads {
     protected Iterator<Quad> findInSpecificNamedGraph(Node g, Node s, Node p,
             Node o) {
         checkIsOpen();
-        sync();
-        InputStream results = selectTriplesInGraph(g.getURI(), s, p, o);
-        return new QuadsIterator(g.getURI(), results);
+        syncForRead(g);
+        return findQuads(g.getURI(), g, s, p, o);
     }
 
     /**
@@ -301,31 +480,299 @@ public class MarkLogicDatasetGraph extends DatasetGraphTriplesQuads {
     @Override
     protected Iterator<Quad> findInAnyNamedGraphs(Node s, Node p, Node o) {
         checkIsOpen();
-        sync();
-        Node s1 = s != null ? s : Node.ANY;
-        Node p1 = p != null ? p : Node.ANY;
-        Node o1 = o != null ? o : Node.ANY;
+        syncForRead(Node.ANY);
+        return findQuads(null, null, s, p, o);
+    }
 
-        SPARQLQueryDefinition qdef = client.newQueryDefinition("");
-        StringBuilder sb = new StringBuilder();
-        sb.append("SELECT ?g ?s ?p ?o where {GRAPH ?g { ?s ?p ?o }");
-        if (s1 != Node.ANY) {
-            qdef.withBinding("a", s1.getURI());
-            sb.append("FILTER (?s = ?a) ");
+    /**
+     * Builds the ASK query behind contains().  Concrete terms are written
+     * into the pattern, as in find().
+     *
+     * @param g
+     *            the graph: Node.ANY for any graph, Quad.unionGraph for any
+     *            named graph, otherwise the default or one named graph.
+     * @param s
+     *            the subject, or Node.ANY.
+     * @param p
+     *            the predicate, or Node.ANY.
+     * @param o
+     *            the object, or Node.ANY.
+     * @return The query, to run with g as its default graph, or with the
+     *         MarkLogic default graph for Node.ANY.
+     */
+    static String askQuery(Node g, Node s, Node p, Node o) {
+        StringBuilder triple = new StringBuilder();
+        appendPatternTerm(null, triple, "s", s);
+        appendPatternTerm(null, triple, "p", p);
+        appendPatternTerm(null, triple, "o", o);
+        String pattern;
+        if (g == Node.ANY) {
+            pattern = "{ " + triple + "} UNION { GRAPH ?g { " + triple + "} "
+                    + NAMED_GRAPH_FILTER + "} ";
+        } else if (Quad.isUnionGraph(g)) {
+            pattern = "GRAPH ?g { " + triple + "} " + NAMED_GRAPH_FILTER;
+        } else {
+            pattern = triple.toString();
         }
-        if (p1 != Node.ANY) {
-            qdef.withBinding("b", p1.getURI());
-            sb.append("FILTER (?p = ?b) ");
+        return "ASK WHERE { " + pattern + "}";
+    }
+
+    /*
+     * The default graph for an ASK about graph g, or null for the
+     * union of the named graphs.
+     */
+    private static String containsGraphUri(Node g) {
+        if (g == Node.ANY || Quad.isDefaultGraph(g)) {
+            return DEFAULT_GRAPH_URI;
         }
-        if (o1 != Node.ANY) {
-            qdef = bindObject(qdef, "c", o1);
-            sb.append("FILTER (?o = ?c) ");
+        return Quad.isUnionGraph(g) ? null : g.getURI();
+    }
+
+    /**
+     * Checks for a match with an ASK query, rather than by fetching
+     * matches as find() does.
+     *
+     * @see org.apache.jena.sparql.core.DatasetGraph#contains(Node, Node, Node, Node)
+     */
+    @Override
+    public boolean contains(Node g, Node s, Node p, Node o) {
+        checkIsOpen();
+        Node g1 = g == null ? Node.ANY : g;
+        syncForRead(g1);
+        SPARQLQueryDefinition qdef = client.newQueryDefinition(askQuery(g1,
+                patternNode(s), patternNode(p), patternNode(o)));
+        String graphUri = containsGraphUri(g1);
+        if (graphUri != null) {
+            qdef.setDefaultGraphUris(graphUri);
         }
-        sb.append("}");
-        qdef.setSparql(sb.toString());
-        InputStreamHandle results = client.executeSelect(qdef,
-                new InputStreamHandle());
-        return new QuadsIterator(results.get());
+        return client.executeAsk(qdef);
+    }
+
+    /**
+     * @see #contains(Node, Node, Node, Node)
+     */
+    @Override
+    public boolean contains(Quad quad) {
+        return contains(quad.getGraph(), quad.getSubject(),
+                quad.getPredicate(), quad.getObject());
+    }
+
+    /**
+     * Checks many quads at once, sending one request per few hundred
+     * quads, rather than one contains() request each.  A quad in
+     * Quad.unionGraph is found if any named graph holds its triple.
+     *
+     * @param quads
+     *            Concrete quads to look for.
+     * @return The quads that are in the dataset.
+     */
+    public Set<Quad> containedQuads(Collection<Quad> quads) {
+        checkIsOpen();
+        syncForRead(quads);
+        List<Quad> inDefaultGraph = new ArrayList<Quad>();
+        List<Quad> inUnionGraph = new ArrayList<Quad>();
+        List<Quad> inNamedGraphs = new ArrayList<Quad>();
+        for (Quad quad : quads) {
+            if (!quad.isConcrete()) {
+                throw new IllegalArgumentException(
+                        "containedQuads() takes concrete quads, not " + quad);
+            }
+            if (Quad.isDefaultGraph(quad.getGraph())) {
+                inDefaultGraph.add(quad);
+            } else if (Quad.isUnionGraph(quad.getGraph())) {
+                inUnionGraph.add(quad);
+            } else {
+                inNamedGraphs.add(quad);
+            }
+        }
+        Set<Quad> found = new HashSet<Quad>();
+        containedQuads(inDefaultGraph, Quad.defaultGraphIRI, found);
+        containedQuads(inUnionGraph, Quad.unionGraph, found);
+        containedQuads(inNamedGraphs, null, found);
+        return found;
+    }
+
+    private void containedQuads(List<Quad> quads, Node g, Set<Quad> found) {
+        for (int start = 0; start < quads.size(); start += VALUES_BATCH_SIZE) {
+            List<Quad> batch = quads.subList(start,
+                    Math.min(start + VALUES_BATCH_SIZE, quads.size()));
+            SPARQLQueryDefinition qdef = client.newQueryDefinition(
+                    containsQuery(batch, g));
+            if (g != null && containsGraphUri(g) != null) {
+                qdef.setDefaultGraphUris(containsGraphUri(g));
+            }
+            ResultSet results = client.executeSelectStreaming(qdef, null, null);
+            try {
+                while (results.hasNext()) {
+                    Node index = results.nextBinding().get(INDEX);
+                    found.add(batch.get(Integer.parseInt(index.getLiteralLexicalForm())));
+                }
+            } finally {
+                results.close();
+            }
+        }
+    }
+
+    /**
+     * Builds the query behind containedQuads(), which joins the quads,
+     * as VALUES rows numbered from zero, against the dataset, and selects
+     * the numbers of the rows that match.
+     *
+     * @param quads
+     *            the quads to look for.
+     * @param g
+     *            null if each row names its graph, Quad.unionGraph to
+     *            match the triples in any named graph, otherwise the
+     *            default graph.
+     * @return The query.
+     */
+    static String containsQuery(List<Quad> quads, Node g) {
+        boolean withGraph = g == null;
+        StringBuilder query = new StringBuilder("SELECT DISTINCT ?i WHERE { VALUES (?i");
+        query.append(withGraph ? " ?g ?s ?p ?o) {" : " ?s ?p ?o) {");
+        for (int i = 0; i < quads.size(); i++) {
+            Quad quad = quads.get(i);
+            query.append(" (").append(i).append(" ");
+            if (withGraph) {
+                query.append(NodeFmtLib.strNT(quad.getGraph())).append(" ");
+            }
+            appendValuesRow(query, quad);
+        }
+        query.append(" } ");
+        if (withGraph) {
+            query.append("GRAPH ?g { ?s ?p ?o } }");
+        } else if (Quad.isUnionGraph(g)) {
+            query.append("GRAPH ?g { ?s ?p ?o } ").append(NAMED_GRAPH_FILTER)
+                    .append("}");
+        } else {
+            query.append("?s ?p ?o }");
+        }
+        return query.toString();
+    }
+
+    /*
+     * Appends the subject, predicate and object of a quad to a VALUES
+     * row, with UNDEF for wildcards, and closes the row.
+     */
+    private static void appendValuesRow(StringBuilder query, Quad quad) {
+        query.append(valuesTerm(quad.getSubject())).append(" ")
+                .append(valuesTerm(quad.getPredicate())).append(" ")
+                .append(valuesTerm(quad.getObject())).append(")");
+    }
+
+    private static String valuesTerm(Node node) {
+        if (node == null || node == Node.ANY || node.isVariable()) {
+            return "UNDEF";
+        }
+        return NodeFmtLib.strNT(skolemize(node));
+    }
+
+    /**
+     * Finds the matches of many patterns with a few requests, rather than
+     * one find() request per pattern.  The patterns are sent as numbered
+     * VALUES rows, up to a few hundred per request, and each match is
+     * returned with the pattern whose row it joined.
+     *
+     * A pattern in Node.ANY or null matches in the default graph and in
+     * every named graph; one in Quad.unionGraph matches in every named
+     * graph.  Either way, the matches carry the graph they were found in.
+     *
+     * @param patterns
+     *            Quad patterns, with Node.ANY for wildcards.
+     * @return The matches of each distinct pattern, in the order of
+     *         patterns.  A pattern without matches maps to an empty list.
+     */
+    public Map<Quad, List<Quad>> findAll(Collection<Quad> patterns) {
+        checkIsOpen();
+        syncForRead(patterns);
+        Map<Quad, List<Quad>> matches = new LinkedHashMap<Quad, List<Quad>>();
+        List<Quad> inDefaultGraph = new ArrayList<Quad>();
+        List<Quad> inNamedGraphs = new ArrayList<Quad>();
+        for (Quad pattern : patterns) {
+            if (matches.containsKey(pattern)) {
+                continue;
+            }
+            matches.put(pattern, new ArrayList<Quad>());
+            Node g = pattern.getGraph();
+            boolean anyGraph = g == null || g == Node.ANY;
+            if (anyGraph || Quad.isDefaultGraph(g)) {
+                inDefaultGraph.add(pattern);
+            }
+            if (anyGraph || !Quad.isDefaultGraph(g)) {
+                inNamedGraphs.add(pattern);
+            }
+        }
+        findAll(inDefaultGraph, true, matches);
+        findAll(inNamedGraphs, false, matches);
+        return matches;
+    }
+
+    private void findAll(List<Quad> patterns, boolean inDefaultGraph,
+            Map<Quad, List<Quad>> matches) {
+        for (int start = 0; start < patterns.size(); start += VALUES_BATCH_SIZE) {
+            List<Quad> batch = patterns.subList(start,
+                    Math.min(start + VALUES_BATCH_SIZE, patterns.size()));
+            SPARQLQueryDefinition qdef = client.newQueryDefinition(
+                    findAllQuery(batch, inDefaultGraph));
+            if (inDefaultGraph) {
+                qdef.setDefaultGraphUris(DEFAULT_GRAPH_URI);
+            }
+            ResultSet results = client.executeSelectStreaming(qdef, null,
+                    null, client.getSelectResultFormat().preservingTerms());
+            try {
+                while (results.hasNext()) {
+                    Binding binding = results.nextBinding();
+                    Quad pattern = batch.get(Integer.parseInt(
+                            binding.get(INDEX).getLiteralLexicalForm()));
+                    Node g = inDefaultGraph ? Quad.defaultGraphIRI
+                            : binding.get(G);
+                    matches.get(pattern).add(new Quad(g, binding.get(S),
+                            binding.get(P), binding.get(O)));
+                }
+            } finally {
+                results.close();
+            }
+        }
+    }
+
+    /**
+     * Builds the query behind findAll(), which joins the patterns, as
+     * VALUES rows numbered from zero, against the dataset.  Wildcards are
+     * UNDEF, so that the pattern binds them.
+     *
+     * @param patterns
+     *            the patterns to match.
+     * @param inDefaultGraph
+     *            whether to match in the query's default graph, rather
+     *            than in the named graphs.
+     * @return The query.
+     */
+    static String findAllQuery(List<Quad> patterns, boolean inDefaultGraph) {
+        StringBuilder query = new StringBuilder();
+        if (inDefaultGraph) {
+            query.append("SELECT ?i ?s ?p ?o WHERE { VALUES (?i ?s ?p ?o) {");
+        } else {
+            query.append("SELECT ?i ?g ?s ?p ?o WHERE { VALUES (?i ?g ?s ?p ?o) {");
+        }
+        for (int i = 0; i < patterns.size(); i++) {
+            Quad pattern = patterns.get(i);
+            query.append(" (").append(i).append(" ");
+            if (!inDefaultGraph) {
+                Node g = pattern.getGraph();
+                boolean anyGraph = g == null || g == Node.ANY || Quad.isUnionGraph(g);
+                query.append(anyGraph ? "UNDEF" : NodeFmtLib.strNT(g)).append(" ");
+            }
+            appendValuesRow(query, pattern);
+        }
+        query.append(" } ");
+        if (inDefaultGraph) {
+            query.append("?s ?p ?o }");
+        } else {
+            // the default graph's matches come from the other query
+            query.append("GRAPH ?g { ?s ?p ?o } ").append(NAMED_GRAPH_FILTER)
+                    .append("}");
+        }
+        return query.toString();
     }
 
     @Override
@@ -380,7 +827,11 @@ public class MarkLogicDatasetGraph extends DatasetGraphTriplesQuads {
     public void abort() {
         checkIsOpen();
         sync();
-        client.abort();
+        try {
+            client.abort();
+        } finally {
+            invalidateAll();
+        }
     }
 
     @Override
@@ -432,8 +883,8 @@ public class MarkLogicDatasetGraph extends DatasetGraphTriplesQuads {
     @Override
     public Graph getDefaultGraph() {
         checkIsOpen();
-        sync();
-        return GraphView.createDefaultGraph(this);
+        syncForRead(Quad.defaultGraphIRI);
+        return new MarkLogicGraphView(this, Quad.defaultGraphNodeGenerated);
     }
 
     /**
@@ -442,11 +893,21 @@ public class MarkLogicDatasetGraph extends DatasetGraphTriplesQuads {
     @Override
     public Graph getGraph(Node graphNode) {
         checkIsOpen();
-        sync();
-        return GraphView.createNamedGraph(this, graphNode);
+        syncForRead(graphNode);
+        return new MarkLogicGraphView(this, graphNode);
         //return client.readGraph(graphNode.getURI());
     }
 
+    /**
+     * @see org.apache.jena.sparql.core.DatasetGraph
+     */
+    @Override
+    public Graph getUnionGraph() {
+        checkIsOpen();
+        syncForRead(Node.ANY);
+        return new MarkLogicGraphView(this, Quad.unionGraph);
+    }
+
     /**
      * @see org.apache.jena.sparql.core.DatasetGraph
      */
@@ -455,6 +916,7 @@ public class MarkLogicDatasetGraph extends DatasetGraphTriplesQuads {
         checkIsOpen();
         sync();
         client.writeGraph(graphName.getURI(), graph);
+        invalidate(graphName);
     }
 
     /**
@@ -470,6 +932,93 @@ public class MarkLogicDatasetGraph extends DatasetGraphTriplesQuads {
         checkIsOpen();
         sync();
         client.mergeGraph(graphName.getURI(), graph);
+        invalidate(graphName);
+    }
+
+    /**
+     * Loads RDF into MarkLogic, sending batches of triples on several
+     * threads at once.  Intended for large loads, where passing each quad
+     * through add() would serialize the load on one buffer.  bulkLoad() is
+     * NOT part of Jena's DatasetGraph interface.
+     * 
+     * @param in
+     *            The RDF to load.
+     * @param lang
+     *            The syntax of the RDF.
+     * @param options
+     *            Batch size, concurrency and retry settings.
+     * @return The number of triples sent to MarkLogic.
+     */
+    public long bulkLoad(InputStream in, Lang lang, BulkLoadOptions options) {
+        checkIsOpen();
+        sync();
+        BulkLoader loader = new BulkLoader(client, options);
+        try {
+            RDFParser.source(in).lang(lang).parse(loader);
+            loader.complete();
+        } finally {
+            loader.close();
+            invalidateAll();
+        }
+        return loader.getTriplesLoaded();
+    }
+
+    /**
+     * Loads RDF into MarkLogic with the default {@link BulkLoadOptions}.
+     * 
+     * @param in
+     *            The RDF to load.
+     * @param lang
+     *            The syntax of the RDF.
+     * @return The number of triples sent to MarkLogic.
+     */
+    public long bulkLoad(InputStream in, Lang lang) {
+        return bulkLoad(in, lang, new BulkLoadOptions());
+    }
+
+    /**
+     * Runs a CONSTRUCT or DESCRIBE query and adds the resulting triples to
+     * a graph as they arrive, without the per-row bindings that
+     * QueryExecution.execConstruct() makes.  construct() is NOT part of
+     * Jena's DatasetGraph interface.
+     * 
+     * @param query
+     *            A CONSTRUCT or DESCRIBE query.
+     * @param graph
+     *            The graph to add the triples to.
+     * @return The graph, with the triples added.
+     */
+    public Graph construct(Query query, Graph graph) {
+        construct(query, StreamRDFLib.graph(graph));
+        return graph;
+    }
+
+    /**
+     * Runs a CONSTRUCT or DESCRIBE query and sends the resulting triples to
+     * a sink as they are parsed, so that large results can be processed in
+     * constant memory.
+     * 
+     * @param query
+     *            A CONSTRUCT or DESCRIBE query.
+     * @param sink
+     *            Receives each triple.
+     */
+    public void construct(Query query, StreamRDF sink) {
+        checkIsOpen();
+        MarkLogicQueryEngine.execGraphQuery(this, query, sink);
+    }
+
+    /**
+     * Runs a CONSTRUCT or DESCRIBE query and returns its triples, parsed
+     * as the iterator is read.
+     * 
+     * @param query
+     *            A CONSTRUCT or DESCRIBE query.
+     * @return The triples of the result.
+     */
+    public Iterator<Triple> constructTriples(Query query) {
+        checkIsOpen();
+        return MarkLogicQueryEngine.execGraphQueryTriples(this, query);
     }
 
     /**
@@ -480,14 +1029,111 @@ public class MarkLogicDatasetGraph extends DatasetGraphTriplesQuads {
         checkIsOpen();
         sync();
         client.deleteGraph(graphName.getURI());
+        invalidate(graphName);
     }
 
-    @Override
     /**
-     * Not supported by MarkLogicDatasetGraph.
+     * Counts the named graphs with MarkLogic, not including the default
+     * graph.  Outside a transaction the graphs are listed, which needs no
+     * triple to be read; inside one they are counted with a query, so
+     * that graphs written in the transaction are counted too.
+     *
+     * @return The number of named graphs.
+     * @see org.apache.jena.sparql.core.DatasetGraph#size()
      */
+    @Override
     public long size() {
-        throw new UnsupportedOperationException("Dataset.size()");
+        checkIsOpen();
+        syncForRead(Node.ANY);
+        if (countCache == null) {
+            return countGraphs();
+        }
+        Long cached = countCache.getGraphCount();
+        if (cached != null) {
+            return cached;
+        }
+        long generation = countCache.generation();
+        long count = countGraphs();
+        countCache.putGraphCount(count, generation);
+        return count;
+    }
+
+    /**
+     * Counts the triples in one graph with MarkLogic.  This is what
+     * size() returns on the graphs from getDefaultGraph() and getGraph().
+     *
+     * @param graphName
+     *            the graph, null or Quad.defaultGraphIRI for the default
+     *            graph, or Quad.unionGraph for the distinct triples of
+     *            every named graph.
+     * @return The number of triples in the graph.
+     */
+    public long graphSize(Node graphName) {
+        checkIsOpen();
+        syncForRead(graphName == null ? Quad.defaultGraphIRI : graphName);
+        String name;
+        if (graphName == null || Quad.isDefaultGraph(graphName)) {
+            name = DEFAULT_GRAPH_URI;
+        } else if (Quad.isUnionGraph(graphName)) {
+            name = null;
+        } else {
+            name = graphName.getURI();
+        }
+        if (countCache == null) {
+            return countTriples(name);
+        }
+        Long cached = countCache.getTripleCount(name);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = countCache.generation();
+        long count = countTriples(name);
+        countCache.putTripleCount(name, count, generation);
+        return count;
+    }
+
+    private long countGraphs() {
+        if (client.isInTransaction()) {
+            return count(GRAPH_COUNT_QUERY, null);
+        }
+        long count = 0;
+        Iterator<String> graphNames = client.listGraphUris();
+        while (graphNames.hasNext()) {
+            if (!DEFAULT_GRAPH_URI.equals(graphNames.next())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /*
+     * Counts the triples in one graph, or the distinct triples of every
+     * named graph if graphName is null.
+     */
+    private long countTriples(String graphName) {
+        return graphName == null ? count(UNION_COUNT_QUERY, null)
+                : count(TRIPLE_COUNT_QUERY, graphName);
+    }
+
+    /*
+     * Runs a query that selects a single ?count.
+     */
+    private long count(String query, String graphName) {
+        SPARQLQueryDefinition qdef = client.newQueryDefinition(query);
+        if (graphName != null) {
+            qdef.setDefaultGraphUris(graphName);
+        }
+        ResultSet results = client.executeSelectStreaming(qdef, null, null);
+        try {
+            if (!results.hasNext()) {
+                throw new MarkLogicJenaException("COUNT query returned no result");
+            }
+            Node count = results.nextBinding().get(COUNT);
+            // the lexical form, since CSV results carry no datatype
+            return Long.parseLong(count.getLiteralLexicalForm());
+        } finally {
+            results.close();
+        }
     }
 
     /**
@@ -547,17 +1193,170 @@ public class MarkLogicDatasetGraph extends DatasetGraphTriplesQuads {
      */
     public void sync() {
         client.syncAdds();
-        client.syncDeletes();
     }
 
     /**
-     * Used for deletes, forces the write buffer to sync before
-     * constructing a delete buffer.
+     * Forces the write cache to flush to the server.  Adds and deletes
+     * share the cache, so this is the same as sync().
      */
     public void syncAdds() {
         client.syncAdds();
     }
 
+    /**
+     * Forces the quads in the write cache for one graph to flush to the
+     * server.  Other graphs stay buffered.
+     *
+     * @param graphName
+     *            the graph, or null for the default graph.
+     */
+    public void sync(Node graphName) {
+        client.syncAdds(graphName);
+    }
+
+    /*
+     * Flushes what a read of graphName may see, as the consistency mode
+     * asks.  Node.ANY and the union graph stand for every graph.
+     */
+    private void syncForRead(Node graphName) {
+        switch (consistencyMode) {
+        case EVENTUAL:
+            break;
+        case GRAPH_SCOPED:
+            if (graphName != Node.ANY && !Quad.isUnionGraph(graphName)) {
+                sync(graphName);
+                break;
+            }
+            sync();
+            break;
+        default:
+            sync();
+        }
+    }
+
+    /*
+     * Flushes what a read of the graphs of quads may see.
+     */
+    private void syncForRead(Collection<Quad> quads) {
+        if (consistencyMode != ConsistencyMode.GRAPH_SCOPED) {
+            syncForRead(Node.ANY);
+            return;
+        }
+        Set<Node> graphs = new HashSet<Node>();
+        for (Quad quad : quads) {
+            Node g = quad.getGraph();
+            if (g == null || g == Node.ANY || Quad.isUnionGraph(g)) {
+                sync();
+                return;
+            }
+            graphs.add(g);
+        }
+        for (Node g : graphs) {
+            sync(g);
+        }
+    }
+
+    /**
+     * Flushes what a SPARQL query may see, as the consistency mode asks.
+     * With GRAPH_SCOPED, a query with FROM or FROM NAMED flushes only
+     * those graphs, and any other query flushes everything.
+     *
+     * @param query
+     *            the query about to be sent.
+     */
+    public void syncForQuery(Query query) {
+        if (consistencyMode != ConsistencyMode.GRAPH_SCOPED
+                || !query.hasDatasetDescription()) {
+            syncForRead(Node.ANY);
+            return;
+        }
+        for (String uri : query.getGraphURIs()) {
+            sync(NodeFactory.createURI(uri));
+        }
+        for (String uri : query.getNamedGraphURIs()) {
+            sync(NodeFactory.createURI(uri));
+        }
+    }
+
+    /**
+     * Sets how much of the write buffers is flushed before a read.
+     *
+     * @param consistencyMode
+     *            the mode for subsequent reads.
+     * @see MarkLogicDatasetGraphOptions#withConsistencyMode(ConsistencyMode)
+     */
+    public void setConsistencyMode(ConsistencyMode consistencyMode) {
+        this.consistencyMode = consistencyMode;
+    }
+
+    public ConsistencyMode getConsistencyMode() {
+        return this.consistencyMode;
+    }
+
+    /**
+     * Sets the number of quads fetched per request by find() and the
+     * Graph views over this DatasetGraph.  With a page size, iterating a
+     * large graph fetches pages on demand, and closing the iterator early
+     * stops further requests.
+     * 
+     * @param findPageSize
+     *            The page size, or zero to fetch each find() in one request.
+     */
+    public void setFindPageSize(long findPageSize) {
+        this.findPageSize = findPageSize;
+    }
+
+    /**
+     * Returns the number of quads fetched per request by find().
+     * 
+     * @return The page size, or zero if find() is not paged.
+     */
+    public long getFindPageSize() {
+        return this.findPageSize;
+    }
+
+    /**
+     * Returns the cache of find() results, which also reports its hit and
+     * miss counts.
+     * 
+     * @return The find cache, or null if find() results are not cached.
+     * @see MarkLogicDatasetGraphOptions#withFindCacheSize(int)
+     */
+    public FindCache getFindCache() {
+        return this.findCache;
+    }
+
+    /**
+     * Drops cached find() results and sizes for a graph that has been
+     * written.
+     * 
+     * @param graphName
+     *            the graph written, or null for the default graph.
+     */
+    public void invalidate(Node graphName) {
+        String name = graphName == null || Quad.isDefaultGraph(graphName)
+                ? DEFAULT_GRAPH_URI : graphName.getURI();
+        if (findCache != null) {
+            findCache.invalidate(name);
+        }
+        if (countCache != null) {
+            countCache.invalidate(name);
+        }
+    }
+
+    /**
+     * Drops every cached find() result and size.  Used after writes that may touch
+     * any graph, such as SPARQL updates with a WHERE clause.
+     */
+    public void invalidateAll() {
+        if (findCache != null) {
+            findCache.invalidateAll();
+        }
+        if (countCache != null) {
+            countCache.invalidateAll();
+        }
+    }
+
     /**
      * Specifies a set of inferencing rulesets to apply to a query. These
      * rulesets either come with MarkLogic server or were installed by an
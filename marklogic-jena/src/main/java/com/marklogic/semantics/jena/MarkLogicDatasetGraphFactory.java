@@ -15,6 +15,10 @@
  */
 package com.marklogic.semantics.jena;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.client.DatabaseClientFactory;
 import com.marklogic.client.DatabaseClientFactory.Authentication;
@@ -37,9 +41,43 @@ public class MarkLogicDatasetGraphFactory {
      * @return A MarkLogicDatasetGraph instance wrapping MarkLogic.
      */
     public static MarkLogicDatasetGraph createDatasetGraph(DatabaseClient client) {
-        JenaDatabaseClient jenaClient = new JenaDatabaseClient(client);
+        return createDatasetGraph(client, new MarkLogicDatasetGraphOptions());
+    }
+
+    /**
+     * Creates a MarkLogicDatasetGraph from an existing
+     * {@link com.marklogic.client.DatabaseClient}, with buffer and write
+     * settings tuned for the expected workload.
+     * 
+     * @param client
+     *            An instance of DatabaseClient.
+     * @param options
+     *            Buffer and write settings.
+     * @return A MarkLogicDatasetGraph instance wrapping MarkLogic.
+     */
+    public static MarkLogicDatasetGraph createDatasetGraph(DatabaseClient client,
+            MarkLogicDatasetGraphOptions options) {
+        return createDatasetGraph(Collections.singletonList(client), options);
+    }
+
+    /**
+     * Creates a MarkLogicDatasetGraph over several
+     * {@link com.marklogic.client.DatabaseClient}s, one per MarkLogic host
+     * of the same REST server.  Queries and writes are spread over the
+     * hosts by the options' host selection policy; work inside a
+     * transaction stays on the host that opened it.
+     * 
+     * @param clients
+     *            One DatabaseClient per host.
+     * @param options
+     *            Buffer, write and host selection settings.
+     * @return A MarkLogicDatasetGraph instance wrapping MarkLogic.
+     */
+    public static MarkLogicDatasetGraph createDatasetGraph(
+            List<DatabaseClient> clients, MarkLogicDatasetGraphOptions options) {
+        JenaDatabaseClient jenaClient = new JenaDatabaseClient(clients, options);
         MarkLogicDatasetGraph datasetGraph = new MarkLogicDatasetGraph(
-                jenaClient);
+                jenaClient, options);
         MarkLogicQueryEngine.unregister();
         MarkLogicQueryEngine.register();
         MarkLogicUpdateEngine.unregister();
@@ -69,4 +107,120 @@ public class MarkLogicDatasetGraphFactory {
                 user, password, type);
         return MarkLogicDatasetGraphFactory.createDatasetGraph(client);
     }
+
+    /**
+     * Creates MarkLogicDatasetGraph from access parameters to a REST MarkLogic
+     * server, with buffer and write settings tuned for the expected workload.
+     * 
+     * @param host
+     *            the host with the REST server
+     * @param port
+     *            the port for the REST server
+     * @param user
+     *            the user with read, write, or administrative privileges
+     * @param password
+     *            the password for the user
+     * @param type
+     *            the type of authentication applied to the request
+     * @param options
+     *            buffer and write settings
+     * @return A MarkLogicDatasetGraph instance wrapping MarkLogic.
+     */
+    static public MarkLogicDatasetGraph createDatasetGraph(String host,
+            int port, String user, String password, Authentication type,
+            MarkLogicDatasetGraphOptions options) {
+        DatabaseClient client = DatabaseClientFactory.newClient(host, port,
+                user, password, type);
+        return MarkLogicDatasetGraphFactory.createDatasetGraph(client, options);
+    }
+
+    /**
+     * Creates MarkLogicDatasetGraph from access parameters to a REST server
+     * that runs on several MarkLogic hosts, spreading requests over them.
+     * 
+     * @param hosts
+     *            the hosts with the REST server
+     * @param port
+     *            the port for the REST server
+     * @param user
+     *            the user with read, write, or administrative privileges
+     * @param password
+     *            the password for the user
+     * @param type
+     *            the type of authentication applied to the request
+     * @param options
+     *            buffer, write and host selection settings
+     * @return A MarkLogicDatasetGraph instance wrapping MarkLogic.
+     */
+    static public MarkLogicDatasetGraph createDatasetGraph(List<String> hosts,
+            int port, String user, String password, Authentication type,
+            MarkLogicDatasetGraphOptions options) {
+        return MarkLogicDatasetGraphFactory.createDatasetGraph(
+                newClients(hosts, port, user, password, type), options);
+    }
+
+    /**
+     * Creates a pool of MarkLogicDatasetGraphs over one
+     * {@link com.marklogic.client.DatabaseClient}, for code that serves
+     * concurrent requests.
+     * 
+     * @param client
+     *            An instance of DatabaseClient, shared by the pool.
+     * @param poolSize
+     *            the number of dataset graphs in the pool
+     * @param options
+     *            settings applied to every dataset graph in the pool
+     * @return A pool of MarkLogicDatasetGraphs.
+     */
+    public static MarkLogicDatasetGraphPool createDatasetGraphPool(
+            DatabaseClient client, int poolSize,
+            MarkLogicDatasetGraphOptions options) {
+        return new MarkLogicDatasetGraphPool(Collections.singletonList(client),
+                poolSize, options);
+    }
+
+    /**
+     * Creates a pool of MarkLogicDatasetGraphs from access parameters to a
+     * REST server that runs on several MarkLogic hosts.  One DatabaseClient
+     * is made per host, and every dataset graph spreads its requests over
+     * them with the options' host selection policy.
+     * Closing the pool releases the clients.
+     * 
+     * @param hosts
+     *            the hosts with the REST server
+     * @param port
+     *            the port for the REST server
+     * @param user
+     *            the user with read, write, or administrative privileges
+     * @param password
+     *            the password for the user
+     * @param type
+     *            the type of authentication applied to the request
+     * @param poolSize
+     *            the number of dataset graphs in the pool
+     * @param options
+     *            settings applied to every dataset graph in the pool
+     * @return A pool of MarkLogicDatasetGraphs.
+     */
+    static public MarkLogicDatasetGraphPool createDatasetGraphPool(
+            List<String> hosts, int port, String user, String password,
+            Authentication type, int poolSize,
+            MarkLogicDatasetGraphOptions options) {
+        return new MarkLogicDatasetGraphPool(
+                newClients(hosts, port, user, password, type), poolSize,
+                options, true);
+    }
+
+    private static List<DatabaseClient> newClients(List<String> hosts,
+            int port, String user, String password, Authentication type) {
+        if (hosts.isEmpty()) {
+            throw new IllegalArgumentException("At least one host is required");
+        }
+        List<DatabaseClient> clients = new ArrayList<DatabaseClient>();
+        for (String host : hosts) {
+            clients.add(DatabaseClientFactory.newClient(host, port, user,
+                    password, type));
+        }
+        return clients;
+    }
 }
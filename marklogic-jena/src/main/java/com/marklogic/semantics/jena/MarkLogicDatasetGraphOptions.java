@@ -0,0 +1,506 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena;
+
+import java.nio.file.Path;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.marklogic.semantics.jena.client.GraphResultFormat;
+import com.marklogic.semantics.jena.client.HostSelectionPolicy;
+import com.marklogic.semantics.jena.client.MutationBuffer;
+import com.marklogic.semantics.jena.client.SelectResultFormat;
+
+/**
+ * Tuning settings for a MarkLogicDatasetGraph, passed to
+ * {@link MarkLogicDatasetGraphFactory}.  Create one with the default
+ * constructor, which holds the defaults used when no options are given,
+ * and adjust it with the fluent setters.
+ */
+public class MarkLogicDatasetGraphOptions {
+
+    public static final int DEFAULT_NODE_CACHE_SIZE = 4096;
+    public static final int DEFAULT_FIND_CACHE_MAX_QUADS = 10000;
+
+    /**
+     * Settings for one of the client-side buffers that batch adds
+     * and deletes before they are sent to MarkLogic.
+     */
+    public static class BufferOptions {
+
+        public static final long DEFAULT_MAX_TRIPLES = 199;
+        public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 750;
+        public static final long DEFAULT_INITIAL_DELAY_MILLIS = 750;
+
+        private long maxTriples = DEFAULT_MAX_TRIPLES;
+        private long maxBytes = 0;
+        private long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+        private long initialDelayMillis;
+        private boolean encodedAdds = false;
+        private Path writeAheadLog;
+        private boolean writeAheadLogSync = false;
+
+        private BufferOptions(long initialDelayMillis) {
+            this.initialDelayMillis = initialDelayMillis;
+        }
+
+        /**
+         * Fluent setter for the number of triples that may be buffered
+         * before the buffer is flushed.
+         *
+         * @param maxTriples
+         *            At least one.
+         * @return The buffer options, with max triples set.
+         */
+        public BufferOptions withMaxTriples(long maxTriples) {
+            if (maxTriples < 1) {
+                throw new IllegalArgumentException("maxTriples must be at least 1");
+            }
+            this.maxTriples = maxTriples;
+            return this;
+        }
+
+        public long getMaxTriples() {
+            return maxTriples;
+        }
+
+        /**
+         * Fluent setter for the estimated size of the request body, in
+         * bytes, at which the buffer is flushed regardless of its triple
+         * count.  The estimate is based on the length of each term.
+         *
+         * @param maxBytes
+         *            The size in bytes, or zero for no limit.
+         * @return The buffer options, with max bytes set.
+         */
+        public BufferOptions withMaxBytes(long maxBytes) {
+            if (maxBytes < 0) {
+                throw new IllegalArgumentException("maxBytes must not be negative");
+            }
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        /**
+         * Fluent setter for the time after which buffered triples are
+         * flushed even if the buffer is not full.  The flush is only
+         * scheduled while the buffer holds triples.
+         *
+         * @param flushIntervalMillis
+         *            The interval in milliseconds.
+         * @return The buffer options, with flush interval set.
+         */
+        public BufferOptions withFlushIntervalMillis(long flushIntervalMillis) {
+            if (flushIntervalMillis < 1) {
+                throw new IllegalArgumentException("flushIntervalMillis must be positive");
+            }
+            this.flushIntervalMillis = flushIntervalMillis;
+            return this;
+        }
+
+        public long getFlushIntervalMillis() {
+            return flushIntervalMillis;
+        }
+
+        /**
+         * Fluent setter for the minimum time between creating the buffer
+         * and its first periodic flush.
+         *
+         * @param initialDelayMillis
+         *            The delay in milliseconds.
+         * @return The buffer options, with initial delay set.
+         */
+        public BufferOptions withInitialDelayMillis(long initialDelayMillis) {
+            if (initialDelayMillis < 0) {
+                throw new IllegalArgumentException("initialDelayMillis must not be negative");
+            }
+            this.initialDelayMillis = initialDelayMillis;
+            return this;
+        }
+
+        public long getInitialDelayMillis() {
+            return initialDelayMillis;
+        }
+
+        /**
+         * Fluent setter for holding buffered adds as N-Quads in pooled
+         * direct buffers, rather than as triples on the heap.  Each
+         * flush then merges the adds in one request, with no further
+         * serializing.  Duplicate adds are not removed, a graph-scoped
+         * flush of a graph with encoded adds sends the whole buffer,
+         * and a batch that fails to write is not kept for the next
+         * flush, but left in the write-ahead log for the next start to
+         * replay.  Encoded adds therefore require withWriteAheadLog; a
+         * buffer with encoded adds and no log fails to start.
+         *
+         * @param encodedAdds
+         *            Whether adds are held encoded.
+         * @return The buffer options, with encoded adds set.
+         */
+        public BufferOptions withEncodedAdds(boolean encodedAdds) {
+            this.encodedAdds = encodedAdds;
+            return this;
+        }
+
+        public boolean isEncodedAdds() {
+            return encodedAdds;
+        }
+
+        /**
+         * Fluent setter for a write-ahead log.  Each buffered add and
+         * delete is first appended to a memory-mapped segment file in
+         * the directory.  A segment is kept open until it is full, and
+         * deleted once MarkLogic has every operation in it.  Operations
+         * left by a run that did not finish are replayed into the
+         * buffer when it is next created.  This protects buffered
+         * triples against a crash of the JVM, or with
+         * withWriteAheadLogSync, of the machine, and allows larger
+         * batches and longer flush intervals without risking their loss.  Only one buffer
+         * may use a directory at a time, so graphs that share these
+         * options, as those of a pool do, cannot all have a log; the
+         * buffer that finds the directory in use fails to start.
+         *
+         * @param directory
+         *            Where segments are kept, or null for no log.
+         * @return The buffer options, with the write-ahead log set.
+         */
+        public BufferOptions withWriteAheadLog(Path directory) {
+            this.writeAheadLog = directory;
+            return this;
+        }
+
+        public Path getWriteAheadLog() {
+            return writeAheadLog;
+        }
+
+        /**
+         * Fluent setter for forcing each write-ahead log record to disk
+         * before its add or delete returns.  Without it, a record is
+         * only in the page cache, which a power loss or crash of the
+         * operating system loses.  Each add then waits for the disk.
+         *
+         * @param writeAheadLogSync
+         *            Whether records are forced to disk.  False by default.
+         * @return The buffer options, with write-ahead log sync set.
+         */
+        public BufferOptions withWriteAheadLogSync(boolean writeAheadLogSync) {
+            this.writeAheadLogSync = writeAheadLogSync;
+            return this;
+        }
+
+        public boolean isWriteAheadLogSync() {
+            return writeAheadLogSync;
+        }
+    }
+
+    private boolean periodicFlush = true;
+    private final BufferOptions addBuffer = new BufferOptions(
+            BufferOptions.DEFAULT_INITIAL_DELAY_MILLIS);
+    private MutationBuffer.FlushMode writeFlushMode = MutationBuffer.FlushMode.SPARQL_UPDATE;
+    private int pipelinedWrites = 0;
+    private ScheduledExecutorService flushScheduler;
+    private long findPageSize = 0;
+    private int findCacheSize = 0;
+    private int findCacheMaxQuads = DEFAULT_FIND_CACHE_MAX_QUADS;
+    private long sizeCacheMillis = 0;
+    private ConsistencyMode consistencyMode = ConsistencyMode.STRICT;
+    private HostSelectionPolicy hostSelectionPolicy = HostSelectionPolicy.roundRobin();
+    private SelectResultFormat selectResultFormat = SelectResultFormat.XML;
+    private GraphResultFormat graphResultFormat = GraphResultFormat.NTRIPLES;
+    private int nodeCacheSize = DEFAULT_NODE_CACHE_SIZE;
+
+    /**
+     * Fluent setter for buffering.  When false, adds are sent to MarkLogic
+     * one at a time and the buffer settings are not used.
+     *
+     * @param periodicFlush
+     *            Whether adds and deletes are buffered.
+     * @return The options, with periodic flush set.
+     */
+    public MarkLogicDatasetGraphOptions withPeriodicFlush(boolean periodicFlush) {
+        this.periodicFlush = periodicFlush;
+        return this;
+    }
+
+    public boolean isPeriodicFlush() {
+        return periodicFlush;
+    }
+
+    /**
+     * Returns the settings of the buffer that holds added and deleted
+     * triples.
+     * Change them in place, for example
+     * {@code options.getAddBuffer().withMaxTriples(10000)}.
+     *
+     * @return The add buffer settings.
+     */
+    public BufferOptions getAddBuffer() {
+        return addBuffer;
+    }
+
+    /**
+     * Fluent setter for how buffered adds are sent to MarkLogic.
+     *
+     * @param writeFlushMode
+     *            The flush mode of the write buffer.
+     * @return The options, with write flush mode set.
+     */
+    public MarkLogicDatasetGraphOptions withWriteFlushMode(
+            MutationBuffer.FlushMode writeFlushMode) {
+        this.writeFlushMode = writeFlushMode;
+        return this;
+    }
+
+    public MutationBuffer.FlushMode getWriteFlushMode() {
+        return writeFlushMode;
+    }
+
+    /**
+     * Fluent setter for pipelined writes.
+     *
+     * @param maxInFlightBatches
+     *            The number of buffered batches that may be sent
+     *            concurrently, or zero to send them on the calling thread.
+     * @return The options, with pipelined writes set.
+     * @see com.marklogic.semantics.jena.client.JenaDatabaseClient#setPipelinedWrites(int)
+     */
+    public MarkLogicDatasetGraphOptions withPipelinedWrites(int maxInFlightBatches) {
+        if (maxInFlightBatches < 0) {
+            throw new IllegalArgumentException("maxInFlightBatches must not be negative");
+        }
+        this.pipelinedWrites = maxInFlightBatches;
+        return this;
+    }
+
+    public int getPipelinedWrites() {
+        return pipelinedWrites;
+    }
+
+    /**
+     * Fluent setter for the scheduler that runs periodic flushes.  By
+     * default all dataset graphs share one daemon thread.  A scheduler
+     * passed here is not shut down when the dataset graph is closed.
+     *
+     * @param flushScheduler
+     *            The scheduler, or null for the shared default.
+     * @return The options, with flush scheduler set.
+     */
+    public MarkLogicDatasetGraphOptions withFlushScheduler(
+            ScheduledExecutorService flushScheduler) {
+        this.flushScheduler = flushScheduler;
+        return this;
+    }
+
+    public ScheduledExecutorService getFlushScheduler() {
+        return flushScheduler;
+    }
+
+    /**
+     * Fluent setter for the number of quads fetched per request by find().
+     *
+     * @param findPageSize
+     *            The page size, or zero to fetch each find() in one request.
+     * @return The options, with find page size set.
+     * @see MarkLogicDatasetGraph#setFindPageSize(long)
+     */
+    public MarkLogicDatasetGraphOptions withFindPageSize(long findPageSize) {
+        if (findPageSize < 0) {
+            throw new IllegalArgumentException("findPageSize must not be negative");
+        }
+        this.findPageSize = findPageSize;
+        return this;
+    }
+
+    public long getFindPageSize() {
+        return findPageSize;
+    }
+
+    /**
+     * Fluent setter for the client-side cache of find() results.  Each
+     * entry holds the complete result of one graph and pattern, and is
+     * dropped when that graph is written through the dataset graph.
+     *
+     * @param findCacheSize
+     *            The number of patterns to cache, or zero for no cache.
+     * @return The options, with find cache size set.
+     * @see com.marklogic.semantics.jena.client.FindCache
+     */
+    public MarkLogicDatasetGraphOptions withFindCacheSize(int findCacheSize) {
+        if (findCacheSize < 0) {
+            throw new IllegalArgumentException("findCacheSize must not be negative");
+        }
+        this.findCacheSize = findCacheSize;
+        return this;
+    }
+
+    public int getFindCacheSize() {
+        return findCacheSize;
+    }
+
+    /**
+     * Fluent setter for the largest find() result that is cached.  A
+     * result is streamed to the caller as it is read, and is only
+     * cached once it has been read to the end without passing this
+     * number of quads.
+     *
+     * @param findCacheMaxQuads
+     *            The number of quads, at least one.
+     * @return The options, with find cache max quads set.
+     */
+    public MarkLogicDatasetGraphOptions withFindCacheMaxQuads(int findCacheMaxQuads) {
+        if (findCacheMaxQuads < 1) {
+            throw new IllegalArgumentException("findCacheMaxQuads must be at least 1");
+        }
+        this.findCacheMaxQuads = findCacheMaxQuads;
+        return this;
+    }
+
+    public int getFindCacheMaxQuads() {
+        return findCacheMaxQuads;
+    }
+
+    /**
+     * Fluent setter for how long size() results are kept.  A kept size
+     * is dropped when its graph is written through the dataset graph,
+     * but writes by other clients are only seen once it expires.
+     *
+     * @param sizeCacheMillis
+     *            The time in milliseconds, or zero to count on every call.
+     * @return The options, with size cache time set.
+     * @see MarkLogicDatasetGraph#graphSize(org.apache.jena.graph.Node)
+     */
+    public MarkLogicDatasetGraphOptions withSizeCacheMillis(long sizeCacheMillis) {
+        if (sizeCacheMillis < 0) {
+            throw new IllegalArgumentException("sizeCacheMillis must not be negative");
+        }
+        this.sizeCacheMillis = sizeCacheMillis;
+        return this;
+    }
+
+    public long getSizeCacheMillis() {
+        return sizeCacheMillis;
+    }
+
+    /**
+     * Fluent setter for how much of the write buffers is flushed before
+     * each read.
+     *
+     * @param consistencyMode
+     *            The mode.  STRICT by default, which flushes everything.
+     * @return The options, with consistency mode set.
+     */
+    public MarkLogicDatasetGraphOptions withConsistencyMode(
+            ConsistencyMode consistencyMode) {
+        if (consistencyMode == null) {
+            throw new IllegalArgumentException("consistencyMode must not be null");
+        }
+        this.consistencyMode = consistencyMode;
+        return this;
+    }
+
+    public ConsistencyMode getConsistencyMode() {
+        return consistencyMode;
+    }
+
+    /**
+     * Fluent setter for how requests are spread over hosts, when the
+     * dataset graph is connected to more than one.  Requests inside a
+     * transaction always go to the host that opened it.
+     *
+     * @param hostSelectionPolicy
+     *            The policy.  Round robin by default.
+     * @return The options, with host selection policy set.
+     */
+    public MarkLogicDatasetGraphOptions withHostSelectionPolicy(
+            HostSelectionPolicy hostSelectionPolicy) {
+        if (hostSelectionPolicy == null) {
+            throw new IllegalArgumentException("hostSelectionPolicy must not be null");
+        }
+        this.hostSelectionPolicy = hostSelectionPolicy;
+        return this;
+    }
+
+    public HostSelectionPolicy getHostSelectionPolicy() {
+        return hostSelectionPolicy;
+    }
+
+    /**
+     * Fluent setter for the format in which MarkLogic returns SELECT
+     * results.
+     *
+     * @param selectResultFormat
+     *            The format.  SPARQL XML by default.
+     * @return The options, with select result format set.
+     */
+    public MarkLogicDatasetGraphOptions withSelectResultFormat(
+            SelectResultFormat selectResultFormat) {
+        if (selectResultFormat == null) {
+            throw new IllegalArgumentException("selectResultFormat must not be null");
+        }
+        this.selectResultFormat = selectResultFormat;
+        return this;
+    }
+
+    public SelectResultFormat getSelectResultFormat() {
+        return selectResultFormat;
+    }
+
+    /**
+     * Fluent setter for the format in which MarkLogic returns CONSTRUCT
+     * and DESCRIBE results.
+     *
+     * @param graphResultFormat
+     *            The format.  N-Triples by default.
+     * @return The options, with graph result format set.
+     */
+    public MarkLogicDatasetGraphOptions withGraphResultFormat(
+            GraphResultFormat graphResultFormat) {
+        if (graphResultFormat == null) {
+            throw new IllegalArgumentException("graphResultFormat must not be null");
+        }
+        this.graphResultFormat = graphResultFormat;
+        return this;
+    }
+
+    public GraphResultFormat getGraphResultFormat() {
+        return graphResultFormat;
+    }
+
+    /**
+     * Fluent setter for the cache that shares one Node between the
+     * repeated IRIs and literals of query results.  The cache belongs to
+     * the dataset graph and is used by every find() and SELECT it decodes.
+     *
+     * @param nodeCacheSize
+     *            The number of terms to keep, or zero for no cache.
+     * @return The options, with node cache size set.
+     * @see com.marklogic.semantics.jena.client.NodeCache
+     */
+    public MarkLogicDatasetGraphOptions withNodeCacheSize(int nodeCacheSize) {
+        if (nodeCacheSize < 0) {
+            throw new IllegalArgumentException("nodeCacheSize must not be negative");
+        }
+        this.nodeCacheSize = nodeCacheSize;
+        return this;
+    }
+
+    public int getNodeCacheSize() {
+        return nodeCacheSize;
+    }
+}
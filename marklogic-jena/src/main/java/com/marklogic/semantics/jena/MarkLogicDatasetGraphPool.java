@@ -0,0 +1,211 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.marklogic.client.DatabaseClient;
+
+/**
+ * A fixed set of MarkLogicDatasetGraphs for code that serves concurrent
+ * requests.  Each dataset graph in the pool has its own transaction and
+ * write buffers, so a request that holds one never sees another
+ * request's uncommitted state.  The graphs share the DatabaseClients
+ * given to the pool, and with them the HTTP connections to MarkLogic.
+ *
+ * Take a dataset graph with {@link #acquire()} and give it back with
+ * {@link #release(MarkLogicDatasetGraph)}, or let {@link #execute(Function)}
+ * do both.  Do not close a dataset graph that belongs to a pool.
+ *
+ * A dataset graph only sees its own writes when it drops cached
+ * results, so the find and size caches cannot be used in a pool.
+ */
+public class MarkLogicDatasetGraphPool implements AutoCloseable {
+
+    private static Logger log = LoggerFactory
+            .getLogger(MarkLogicDatasetGraphPool.class);
+
+    private final List<DatabaseClient> clients;
+    private final boolean ownsClients;
+    private final List<MarkLogicDatasetGraph> datasetGraphs;
+    private final BlockingQueue<MarkLogicDatasetGraph> idle;
+    private final Set<MarkLogicDatasetGraph> acquired = Collections
+            .newSetFromMap(new ConcurrentHashMap<MarkLogicDatasetGraph, Boolean>());
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a pool over existing DatabaseClients.  Pass one client per
+     * host to spread requests over several hosts; each dataset graph
+     * chooses a host per request with the options' host selection policy.
+     * The clients are not released when the pool is closed.
+     *
+     * @param clients
+     *            One or more DatabaseClients.
+     * @param poolSize
+     *            The number of dataset graphs, at least one.
+     * @param options
+     *            Settings applied to every dataset graph in the pool,
+     *            without a find cache or size cache.
+     */
+    public MarkLogicDatasetGraphPool(List<DatabaseClient> clients,
+            int poolSize, MarkLogicDatasetGraphOptions options) {
+        this(clients, poolSize, options, false);
+    }
+
+    MarkLogicDatasetGraphPool(List<DatabaseClient> clients, int poolSize,
+            MarkLogicDatasetGraphOptions options, boolean ownsClients) {
+        if (clients.isEmpty()) {
+            throw new IllegalArgumentException("At least one client is required");
+        }
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be at least 1");
+        }
+        if (options.getFindCacheSize() > 0 || options.getSizeCacheMillis() > 0) {
+            // a write through one dataset graph would leave the others stale
+            throw new IllegalArgumentException(
+                    "findCacheSize and sizeCacheMillis cannot be used in a pool");
+        }
+        this.clients = new ArrayList<DatabaseClient>(clients);
+        this.ownsClients = ownsClients;
+        this.idle = new ArrayBlockingQueue<MarkLogicDatasetGraph>(poolSize);
+        List<MarkLogicDatasetGraph> graphs = new ArrayList<MarkLogicDatasetGraph>();
+        for (int i = 0; i < poolSize; i++) {
+            MarkLogicDatasetGraph datasetGraph = MarkLogicDatasetGraphFactory
+                    .createDatasetGraph(this.clients, options);
+            graphs.add(datasetGraph);
+            idle.add(datasetGraph);
+        }
+        this.datasetGraphs = Collections.unmodifiableList(graphs);
+    }
+
+    /**
+     * Takes a dataset graph from the pool, waiting until one is free.
+     *
+     * @return A dataset graph for the caller's sole use until released.
+     */
+    public MarkLogicDatasetGraph acquire() {
+        checkIsOpen();
+        try {
+            MarkLogicDatasetGraph datasetGraph = idle.take();
+            acquired.add(datasetGraph);
+            return datasetGraph;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MarkLogicJenaException(
+                    "Interrupted waiting for a pooled dataset graph", e);
+        }
+    }
+
+    /**
+     * Gives a dataset graph back to the pool.  Buffered writes are
+     * flushed, and a transaction left open is rolled back.
+     *
+     * @param datasetGraph
+     *            A dataset graph taken from this pool and not yet released.
+     */
+    public void release(MarkLogicDatasetGraph datasetGraph) {
+        if (!datasetGraphs.contains(datasetGraph)) {
+            throw new MarkLogicJenaException(
+                    "Dataset graph does not belong to this pool");
+        }
+        if (!acquired.remove(datasetGraph)) {
+            throw new MarkLogicJenaException(
+                    "Dataset graph has already been released");
+        }
+        try {
+            if (datasetGraph.isInTransaction()) {
+                log.warn("Rolling back transaction left open on pooled dataset graph");
+                datasetGraph.abort();
+            }
+            datasetGraph.sync();
+        } finally {
+            idle.offer(datasetGraph);
+        }
+    }
+
+    /**
+     * Runs work against a dataset graph from the pool, and releases the
+     * dataset graph afterwards.
+     *
+     * @param work
+     *            The work to run.
+     * @param <T>
+     *            The result type of the work.
+     * @return The result of the work.
+     */
+    public <T> T execute(Function<MarkLogicDatasetGraph, T> work) {
+        MarkLogicDatasetGraph datasetGraph = acquire();
+        try {
+            return work.apply(datasetGraph);
+        } finally {
+            release(datasetGraph);
+        }
+    }
+
+    /**
+     * @return The number of dataset graphs in the pool.
+     */
+    public int getPoolSize() {
+        return datasetGraphs.size();
+    }
+
+    /**
+     * @return The number of dataset graphs not currently acquired.
+     */
+    public int getAvailable() {
+        return idle.size();
+    }
+
+    /**
+     * Closes every dataset graph in the pool, and releases the
+     * DatabaseClients if the pool created them.  Dataset graphs still
+     * acquired are closed as well.
+     */
+    @Override
+    public void close() {
+        checkIsOpen();
+        closed = true;
+        for (MarkLogicDatasetGraph datasetGraph : datasetGraphs) {
+            try {
+                datasetGraph.sync();
+                datasetGraph.close();
+            } catch (RuntimeException e) {
+                log.error("Error closing pooled dataset graph", e);
+            }
+        }
+        if (ownsClients) {
+            for (DatabaseClient client : clients) {
+                client.release();
+            }
+        }
+    }
+
+    private void checkIsOpen() {
+        if (closed) {
+            throw new MarkLogicJenaException("DatasetGraph pool is closed");
+        }
+    }
+}
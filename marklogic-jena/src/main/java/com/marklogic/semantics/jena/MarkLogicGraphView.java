@@ -0,0 +1,50 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.core.GraphView;
+import org.apache.jena.sparql.core.Quad;
+
+/**
+ * A graph of a MarkLogicDatasetGraph, which MarkLogic counts with a
+ * COUNT query, rather than GraphView's count of every triple find()
+ * returns.  contains() is answered with an ASK query.
+ */
+class MarkLogicGraphView extends GraphView {
+
+    private final MarkLogicDatasetGraph datasetGraph;
+
+    MarkLogicGraphView(MarkLogicDatasetGraph datasetGraph, Node graphName) {
+        super(datasetGraph, graphName);
+        this.datasetGraph = datasetGraph;
+    }
+
+    @Override
+    protected int graphBaseSize() {
+        long size = datasetGraph.graphSize(getGraphName());
+        return size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size;
+    }
+
+    @Override
+    protected boolean graphBaseContains(Triple t) {
+        Node graphName = getGraphName();
+        return datasetGraph.contains(
+                graphName == null ? Quad.defaultGraphIRI : graphName,
+                t.getSubject(), t.getPredicate(), t.getObject());
+    }
+}
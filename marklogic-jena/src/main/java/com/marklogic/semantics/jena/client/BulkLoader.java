@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.core.Quad;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.marklogic.semantics.jena.BulkLoadOptions;
+import com.marklogic.semantics.jena.MarkLogicDatasetGraph;
+import com.marklogic.semantics.jena.MarkLogicJenaException;
+import com.marklogic.semantics.jena.client.TripleBuffer.TriplesHashMap;
+
+/**
+ * A RIOT sink that groups parsed quads into batches and merges each
+ * batch into MarkLogic, with several batches in flight at once.
+ * A batch that fails is retried graph by graph, so that graphs already
+ * merged are not sent twice.
+ */
+public class BulkLoader extends StreamRDFBase {
+
+    private static Logger log = LoggerFactory.getLogger(BulkLoader.class);
+
+    private final JenaDatabaseClient client;
+    private final BulkLoadOptions options;
+    private final WritePipeline pipeline;
+    private TriplesHashMap batch = new TriplesHashMap();
+    // counted by the writer threads as each graph is merged
+    private final LongAdder triplesLoaded = new LongAdder();
+
+    public BulkLoader(JenaDatabaseClient client, BulkLoadOptions options) {
+        this.client = client;
+        this.options = options;
+        this.pipeline = new WritePipeline(options.getThreads());
+    }
+
+    @Override
+    public void triple(Triple triple) {
+        add(TripleBuffer.DEFAULT_GRAPH_NODE, triple);
+    }
+
+    @Override
+    public void quad(Quad quad) {
+        Node g = quad.isDefaultGraph() ? TripleBuffer.DEFAULT_GRAPH_NODE
+                : MarkLogicDatasetGraph.skolemize(quad.getGraph());
+        add(g, quad.asTriple());
+    }
+
+    private void add(Node g, Triple triple) {
+        batch.addTriple(g, Triple.create(
+                MarkLogicDatasetGraph.skolemize(triple.getSubject()),
+                MarkLogicDatasetGraph.skolemize(triple.getPredicate()),
+                MarkLogicDatasetGraph.skolemize(triple.getObject())));
+        if (batch.triplesCount() >= options.getBatchSize()) {
+            dispatch();
+        }
+    }
+
+    private void dispatch() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        TriplesHashMap full = batch;
+        batch = new TriplesHashMap();
+        pipeline.submit(() -> write(full));
+    }
+
+    private void write(TriplesHashMap full) {
+        for (Node graphNode : full.keySet()) {
+            Graph graph = full.get(graphNode);
+            int attempt = 0;
+            while (true) {
+                try {
+                    client.mergeGraph(graphNode.getURI(), graph);
+                    triplesLoaded.add(graph.size());
+                    break;
+                } catch (RuntimeException e) {
+                    if (++attempt > options.getMaxRetries()) {
+                        throw e;
+                    }
+                    log.warn("Bulk load of graph " + graphNode.getURI()
+                            + " failed, retry " + attempt + " of "
+                            + options.getMaxRetries(), e);
+                    pause(options.getRetryDelayMillis() * attempt);
+                }
+            }
+        }
+    }
+
+    private void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MarkLogicJenaException("Bulk load interrupted", e);
+        }
+    }
+
+    /**
+     * Sends the last partial batch and waits for every batch to be written.
+     */
+    public void complete() {
+        dispatch();
+        pipeline.await();
+    }
+
+    /**
+     * Stops the writer threads.  Batches already submitted still finish.
+     */
+    public void close() {
+        pipeline.shutdown();
+    }
+
+    /**
+     * @return the number of distinct triples MarkLogic has accepted so
+     *         far.  Batches still in flight are not counted.
+     */
+    public long getTriplesLoaded() {
+        return triplesLoaded.sum();
+    }
+}
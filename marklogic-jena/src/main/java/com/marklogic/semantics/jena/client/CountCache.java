@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the results of size() queries for a short time, so that callers
+ * which ask for a graph's size repeatedly send one COUNT query.  Counts
+ * are dropped when a graph is written through the same
+ * MarkLogicDatasetGraph, and expire after a fixed time so that writes
+ * made by other clients are seen.
+ *
+ * The count of triples in every named graph is kept under a null graph
+ * name, and is dropped, with the count of graphs, whenever any graph is
+ * written.
+ */
+public class CountCache {
+
+    private static final class Entry {
+        private final long count;
+        private final long expiresAt;
+
+        private Entry(long count, long expiresAt) {
+            this.count = count;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final long ttlNanos;
+    private final Map<String, Entry> tripleCounts = new HashMap<>();
+    private Entry graphCount = null;
+
+    // bumped by every invalidation, so that a count which started before
+    // a write cannot cache what it read
+    private long generation = 0;
+
+    /**
+     * @param ttlMillis how long a count is kept.  At least one.
+     */
+    public CountCache(long ttlMillis) {
+        if (ttlMillis < 1) {
+            throw new IllegalArgumentException("ttlMillis must be at least 1");
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * @param graphName the graph counted, or null for every named graph.
+     * @return the number of triples, or null if it is not cached.
+     */
+    public synchronized Long getTripleCount(String graphName) {
+        Entry entry = tripleCounts.get(graphName);
+        if (entry == null) {
+            return null;
+        }
+        if (expired(entry)) {
+            tripleCounts.remove(graphName);
+            return null;
+        }
+        return entry.count;
+    }
+
+    /**
+     * @param graphName the graph counted, or null for every named graph.
+     * @param count the number of triples.
+     * @param generation the stamp taken before the count was sent.
+     */
+    public synchronized void putTripleCount(String graphName, long count,
+            long generation) {
+        if (generation == this.generation) {
+            tripleCounts.put(graphName, new Entry(count, System.nanoTime() + ttlNanos));
+        }
+    }
+
+    /**
+     * @return the number of named graphs, or null if it is not cached.
+     */
+    public synchronized Long getGraphCount() {
+        if (graphCount == null || expired(graphCount)) {
+            graphCount = null;
+            return null;
+        }
+        return graphCount.count;
+    }
+
+    /**
+     * @param count the number of named graphs.
+     * @param generation the stamp taken before the count was sent.
+     */
+    public synchronized void putGraphCount(long count, long generation) {
+        if (generation == this.generation) {
+            graphCount = new Entry(count, System.nanoTime() + ttlNanos);
+        }
+    }
+
+    /**
+     * @return a stamp to pass to the put methods, taken before the count
+     *         query is sent.
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Drops the count of one graph, and the counts over all named graphs.
+     *
+     * @param graphName the graph that was written.
+     */
+    public synchronized void invalidate(String graphName) {
+        generation++;
+        tripleCounts.remove(graphName);
+        tripleCounts.remove(null);
+        graphCount = null;
+    }
+
+    /**
+     * Drops every count.
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        tripleCounts.clear();
+        graphCount = null;
+    }
+
+    private static boolean expired(Entry entry) {
+        return System.nanoTime() - entry.expiresAt >= 0;
+    }
+}
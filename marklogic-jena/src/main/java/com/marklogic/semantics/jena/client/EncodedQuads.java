@@ -0,0 +1,192 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.out.NodeFmtLib;
+
+import com.marklogic.client.io.OutputStreamSender;
+
+/**
+ * Pending adds held as N-Quads, the form in which they are sent, in
+ * direct buffers taken from a shared pool.  Costs no heap per quad and
+ * needs no serializing at flush time, but unlike a graph it does not
+ * notice a quad added twice.  Not safe for use by several threads at
+ * once.
+ */
+public class EncodedQuads implements OutputStreamSender {
+
+    static final int CHUNK_SIZE = 16 * 1024;
+    // chunks kept for reuse; the rest are left to the garbage collector
+    static final int MAX_POOLED_CHUNKS = 1024;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private final Set<Node> graphs = new HashSet<>();
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private long quadsCount = 0;
+    private long bytes = 0;
+
+    private static ByteBuffer acquire() {
+        ByteBuffer chunk = pool.poll();
+        if (chunk == null) {
+            return ByteBuffer.allocateDirect(CHUNK_SIZE);
+        }
+        pooled.decrementAndGet();
+        chunk.clear();
+        return chunk;
+    }
+
+    private static void release(ByteBuffer chunk) {
+        if (pooled.incrementAndGet() <= MAX_POOLED_CHUNKS) {
+            pool.offer(chunk);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * Appends one quad.
+     * @param graphNode the graph.
+     * @param triple the triple.
+     * @return the number of bytes the quad took.
+     */
+    long add(Node graphNode, Triple triple) {
+        CharBuffer line = CharBuffer.wrap(line(graphNode, triple));
+        ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        long written = 0;
+        encoder.reset();
+        while (true) {
+            if (chunk == null || !chunk.hasRemaining()) {
+                chunk = acquire();
+                chunks.add(chunk);
+            }
+            int start = chunk.position();
+            CoderResult result = encoder.encode(line, chunk, true);
+            written += chunk.position() - start;
+            if (!result.isOverflow()) {
+                break;
+            }
+            // the rest of the line goes in a fresh chunk
+            chunk = null;
+        }
+        graphs.add(graphNode);
+        quadsCount++;
+        bytes += written;
+        return written;
+    }
+
+    /**
+     * @param graphNode the graph.
+     * @param triple the triple.
+     * @return the quad as a line of N-Quads, ending in a newline.
+     */
+    static String line(Node graphNode, Triple triple) {
+        return NodeFmtLib.strNT(triple.getSubject())
+                + " " + NodeFmtLib.strNT(triple.getPredicate())
+                + " " + NodeFmtLib.strNT(triple.getObject())
+                + " " + NodeFmtLib.strNT(graphNode) + " .\n";
+    }
+
+    /**
+     * Moves the quads of another instance after the quads of this one.
+     * @param other the quads to move, which are left empty.
+     */
+    void absorb(EncodedQuads other) {
+        chunks.addAll(other.chunks);
+        graphs.addAll(other.graphs);
+        quadsCount += other.quadsCount;
+        bytes += other.bytes;
+        other.chunks.clear();
+        other.graphs.clear();
+        other.quadsCount = 0;
+        other.bytes = 0;
+    }
+
+    /**
+     * Returns the chunks to the pool.  The quads are gone afterwards.
+     */
+    void release() {
+        for (ByteBuffer chunk : chunks) {
+            release(chunk);
+        }
+        chunks.clear();
+        graphs.clear();
+        quadsCount = 0;
+        bytes = 0;
+    }
+
+    /**
+     * Writes the quads as an N-Quads request body.  May be called more
+     * than once.
+     */
+    @Override
+    public void write(OutputStream out) throws IOException {
+        WritableByteChannel channel = Channels.newChannel(out);
+        for (ByteBuffer chunk : chunks) {
+            ByteBuffer body = chunk.duplicate();
+            body.flip();
+            while (body.hasRemaining()) {
+                channel.write(body);
+            }
+        }
+    }
+
+    /**
+     * @return the graphs with quads here.
+     */
+    public Set<Node> graphs() {
+        return graphs;
+    }
+
+    public boolean containsGraph(Node graphNode) {
+        return graphs.contains(graphNode);
+    }
+
+    public boolean isEmpty() {
+        return quadsCount == 0;
+    }
+
+    public long quadsCount() {
+        return quadsCount;
+    }
+
+    /**
+     * @return the size of the encoded quads, in bytes.
+     */
+    public long bytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.marklogic.client.DatabaseClient;
+import com.marklogic.client.semantics.GraphManager;
+import com.marklogic.client.semantics.RDFMimeTypes;
+import com.marklogic.client.semantics.SPARQLQueryManager;
+
+/**
+ * One MarkLogic host that a JenaDatabaseClient sends requests to, with
+ * the managers for that host and the load figures that a
+ * {@link HostSelectionPolicy} chooses by.
+ */
+public class Endpoint {
+
+    // weight of the newest sample in the moving average of latency
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final DatabaseClient client;
+    private final GraphManager graphManager;
+    private final SPARQLQueryManager sparqlQueryManager;
+    // page length is state of the manager, so each SELECT borrows its own
+    private final Queue<SPARQLQueryManager> selectManagers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private volatile double averageLatencyMillis = 0;
+
+    Endpoint(DatabaseClient client) {
+        this.client = client;
+        this.graphManager = client.newGraphManager();
+        this.graphManager.setDefaultMimetype(RDFMimeTypes.NTRIPLES);
+        this.sparqlQueryManager = client.newSPARQLQueryManager();
+    }
+
+    DatabaseClient getClient() {
+        return client;
+    }
+
+    GraphManager getGraphManager() {
+        return graphManager;
+    }
+
+    SPARQLQueryManager getSparqlQueryManager() {
+        return sparqlQueryManager;
+    }
+
+    /*
+     * Managers are cheap to create; the queue only grows to the largest
+     * number of SELECTs that have run at once.
+     */
+    SPARQLQueryManager borrowSelectManager() {
+        SPARQLQueryManager manager = selectManagers.poll();
+        return manager != null ? manager : client.newSPARQLQueryManager();
+    }
+
+    void returnSelectManager(SPARQLQueryManager manager) {
+        selectManagers.offer(manager);
+    }
+
+    long requestStarted() {
+        outstanding.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    void requestFinished(long startNanos) {
+        outstanding.decrementAndGet();
+        double millis = (System.nanoTime() - startNanos) / 1e6;
+        double average = averageLatencyMillis;
+        averageLatencyMillis = average == 0 ? millis
+                : average + LATENCY_SMOOTHING * (millis - average);
+    }
+
+    /**
+     * @return the host name of this endpoint.
+     */
+    public String getHost() {
+        return client.getHost();
+    }
+
+    /**
+     * @return the number of requests sent to this host and not yet answered.
+     */
+    public int getOutstandingRequests() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return a moving average of this host's response time, in
+     *         milliseconds, or zero before the first response.
+     */
+    public double getAverageLatencyMillis() {
+        return averageLatencyMillis;
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.util.iterator.ClosableIterator;
+
+import com.marklogic.semantics.jena.MarkLogicDatasetGraphOptions;
+
+/**
+ * A least-recently-used cache of find() results, keyed by graph and
+ * triple pattern.  Entries are dropped per graph when that graph is
+ * written through the same MarkLogicDatasetGraph.  Writes made by other
+ * clients are not seen until the entry is evicted.
+ *
+ * Results of a find over every named graph are kept under a null graph
+ * name, and are dropped whenever any graph is written.
+ *
+ * Invalidation is on the path of every buffered add, so it only bumps a
+ * counter for the graph and takes no lock.  Each entry records the
+ * counters it was read under, and is dropped when it is next looked up
+ * if they have moved.  Graphs share a fixed number of counters by hash,
+ * so a write to one graph may also drop entries of another.
+ *
+ * Results of more than a set number of quads are not cached.
+ */
+public class FindCache {
+
+    private static final class Key {
+        private final String graphName;
+        private final Node subject;
+        private final Node predicate;
+        private final Node object;
+
+        private Key(String graphName, Node s, Node p, Node o) {
+            this.graphName = graphName;
+            this.subject = s;
+            this.predicate = p;
+            this.object = o;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return Objects.equals(graphName, key.graphName)
+                    && subject.equals(key.subject)
+                    && predicate.equals(key.predicate)
+                    && object.equals(key.object);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(graphName, subject, predicate, object);
+        }
+    }
+
+    /**
+     * The invalidation counters that a find was sent under.
+     */
+    public static final class Stamp {
+        private final long everyGraph;
+        private final long graph;
+
+        private Stamp(long everyGraph, long graph) {
+            this.everyGraph = everyGraph;
+            this.graph = graph;
+        }
+    }
+
+    private static final class Entry {
+        private final List<Quad> quads;
+        private final Stamp stamp;
+
+        private Entry(List<Quad> quads, Stamp stamp) {
+            this.quads = quads;
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * Passes on the quads of a find, keeping them until the find has
+     * been read to the end, and then caches them.  Stops keeping them
+     * once there are more than the cache takes.
+     */
+    private final class Recorder implements ClosableIterator<Quad> {
+        private final String graphName;
+        private final Node subject;
+        private final Node predicate;
+        private final Node object;
+        private final ClosableIterator<Quad> quads;
+        private final Stamp stamp;
+        private List<Quad> read = new ArrayList<Quad>();
+
+        private Recorder(String graphName, Node s, Node p, Node o,
+                ClosableIterator<Quad> quads, Stamp stamp) {
+            this.graphName = graphName;
+            this.subject = s;
+            this.predicate = p;
+            this.object = o;
+            this.quads = quads;
+            this.stamp = stamp;
+        }
+
+        @Override
+        public boolean hasNext() {
+            boolean more = quads.hasNext();
+            if (!more && read != null) {
+                put(graphName, subject, predicate, object, read, stamp);
+                read = null;
+            }
+            return more;
+        }
+
+        @Override
+        public Quad next() {
+            Quad quad = quads.next();
+            if (read != null) {
+                if (read.size() < maxQuads) {
+                    read.add(quad);
+                } else {
+                    read = null;
+                }
+            }
+            return quad;
+        }
+
+        @Override
+        public void close() {
+            read = null;
+            quads.close();
+        }
+    }
+
+    // graphs hash to these counters
+    private static final int GRAPH_COUNTERS = 256;
+
+    private final int maxEntries;
+    private final int maxQuads;
+    private final Map<Key, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // counters only go up, so a find which started before a write cannot
+    // cache what it read
+    private final LongAdder everyGraph = new LongAdder();
+    private final LongAdder anyGraph = new LongAdder();
+    private final LongAdder[] graphs = new LongAdder[GRAPH_COUNTERS];
+
+    /**
+     * @param maxEntries the number of patterns to keep.  At least one.
+     */
+    public FindCache(int maxEntries) {
+        this(maxEntries, MarkLogicDatasetGraphOptions.DEFAULT_FIND_CACHE_MAX_QUADS);
+    }
+
+    /**
+     * @param maxEntries the number of patterns to keep.  At least one.
+     * @param maxQuads the largest result to keep.  At least one.
+     */
+    @SuppressWarnings("serial")
+    public FindCache(int maxEntries, int maxQuads) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        if (maxQuads < 1) {
+            throw new IllegalArgumentException("maxQuads must be at least 1");
+        }
+        this.maxEntries = maxEntries;
+        this.maxQuads = maxQuads;
+        for (int i = 0; i < GRAPH_COUNTERS; i++) {
+            graphs[i] = new LongAdder();
+        }
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > FindCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Looks up the quads matching a pattern, and counts a hit or a miss.
+     *
+     * @param graphName the graph searched, or null for every named graph.
+     * @param s the subject, or Node.ANY.
+     * @param p the predicate, or Node.ANY.
+     * @param o the object, or Node.ANY.
+     * @return the cached quads, which may not be modified, or null.
+     */
+    public synchronized List<Quad> get(String graphName, Node s, Node p, Node o) {
+        Key key = new Key(graphName, s, p, o);
+        Entry entry = entries.get(key);
+        if (entry != null && !isCurrent(graphName, entry.stamp)) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.quads;
+    }
+
+    /**
+     * @param graphName the graph to be searched, or null for every named
+     *                  graph.
+     * @return a stamp to pass to {@link #put}, taken before the find
+     *         query is sent.
+     */
+    public Stamp stamp(String graphName) {
+        return new Stamp(everyGraph.sum(), counter(graphName));
+    }
+
+    private long counter(String graphName) {
+        if (graphName == null) {
+            return anyGraph.sum();
+        }
+        return graphCounter(graphName).sum();
+    }
+
+    private LongAdder graphCounter(String graphName) {
+        int h = graphName.hashCode();
+        return graphs[(h ^ (h >>> 16)) & (GRAPH_COUNTERS - 1)];
+    }
+
+    private boolean isCurrent(String graphName, Stamp stamp) {
+        return stamp.everyGraph == everyGraph.sum()
+                && stamp.graph == counter(graphName);
+    }
+
+    /**
+     * Caches the quads matching a pattern, unless the graph has been
+     * invalidated since the stamp was taken.
+     *
+     * @param graphName the graph searched, or null for every named graph.
+     * @param s the subject, or Node.ANY.
+     * @param p the predicate, or Node.ANY.
+     * @param o the object, or Node.ANY.
+     * @param quads the complete result of the find.
+     * @param stamp the stamp taken before the find was sent.
+     */
+    public synchronized void put(String graphName, Node s, Node p, Node o,
+            List<Quad> quads, Stamp stamp) {
+        if (isCurrent(graphName, stamp)) {
+            entries.put(new Key(graphName, s, p, o),
+                    new Entry(Collections.unmodifiableList(quads), stamp));
+        }
+    }
+
+    /**
+     * Caches the quads of a find as the caller reads them, once it has
+     * read them all, unless the graph has been invalidated since the
+     * stamp was taken.  A result of more than the largest number of
+     * quads to keep is passed on but not cached.
+     *
+     * @param graphName the graph searched, or null for every named graph.
+     * @param s the subject, or Node.ANY.
+     * @param p the predicate, or Node.ANY.
+     * @param o the object, or Node.ANY.
+     * @param quads the result of the find, not yet read.
+     * @param stamp the stamp taken before the find was sent.
+     * @return the quads of the find.
+     */
+    public ClosableIterator<Quad> record(String graphName, Node s, Node p,
+            Node o, ClosableIterator<Quad> quads, Stamp stamp) {
+        return new Recorder(graphName, s, p, o, quads, stamp);
+    }
+
+    /**
+     * Drops the entries for one graph, and every find over all
+     * named graphs.
+     *
+     * @param graphName the graph that was written.
+     */
+    public void invalidate(String graphName) {
+        graphCounter(graphName).increment();
+        anyGraph.increment();
+    }
+
+    /**
+     * Drops every entry.
+     */
+    public void invalidateAll() {
+        everyGraph.increment();
+        synchronized (this) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return the number of finds answered from the cache.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of finds sent to MarkLogic.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of patterns currently cached, including any
+     *         that will be dropped as stale when next looked up.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public int getMaxQuads() {
+        return maxQuads;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * Holds the scheduler shared by the write and delete buffers of every
+ * JenaDatabaseClient that is not given its own.  It runs on a single
+ * daemon thread, so it never keeps an application from exiting.
+ */
+public class FlushScheduler {
+
+    private static volatile ScheduledExecutorService shared;
+
+    private FlushScheduler() {
+    }
+
+    /**
+     * @return the shared flush scheduler, created on first use.
+     */
+    public static ScheduledExecutorService shared() {
+        if (shared == null) {
+            synchronized (FlushScheduler.class) {
+                if (shared == null) {
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+                        Thread thread = new Thread(r, "marklogic-jena-flush");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor.setRemoveOnCancelPolicy(true);
+                    shared = executor;
+                }
+            }
+        }
+        return shared;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import org.apache.jena.riot.Lang;
+
+import com.marklogic.client.io.Format;
+import com.marklogic.client.io.InputStreamHandle;
+import com.marklogic.client.semantics.RDFMimeTypes;
+
+/**
+ * The format in which MarkLogic returns CONSTRUCT and DESCRIBE results.
+ */
+public enum GraphResultFormat {
+
+    /**
+     * N-Triples, the default.  Verbose, but the fastest to parse.
+     */
+    NTRIPLES(RDFMimeTypes.NTRIPLES, Lang.NTRIPLES),
+
+    /**
+     * Turtle.  Usually much smaller than N-Triples on the wire, at some
+     * cost in parsing.
+     */
+    TURTLE(RDFMimeTypes.TURTLE, Lang.TURTLE);
+
+    private final String mimetype;
+    private final Lang lang;
+
+    GraphResultFormat(String mimetype, Lang lang) {
+        this.mimetype = mimetype;
+        this.lang = lang;
+    }
+
+    public String getMimetype() {
+        return mimetype;
+    }
+
+    /**
+     * @return the Jena language used to read results in this format.
+     */
+    public Lang getLang() {
+        return lang;
+    }
+
+    /**
+     * @return a handle that asks MarkLogic for results in this format.
+     */
+    public InputStreamHandle newHandle() {
+        InputStreamHandle handle = new InputStreamHandle();
+        handle.setFormat(Format.TEXT);
+        handle.setMimetype(mimetype);
+        return handle;
+    }
+}
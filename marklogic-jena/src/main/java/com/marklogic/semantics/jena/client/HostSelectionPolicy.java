@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import java.util.List;
+
+/**
+ * Chooses the host for each request of a JenaDatabaseClient that is
+ * connected to several MarkLogic hosts.  Requests made inside a
+ * transaction do not consult the policy; they go to the host that opened
+ * the transaction.
+ *
+ * Implementations are called concurrently and must be thread-safe.
+ */
+public interface HostSelectionPolicy {
+
+    /**
+     * @param endpoints the hosts to choose from, never empty.
+     * @return one of endpoints.
+     */
+    Endpoint select(List<Endpoint> endpoints);
+
+    /**
+     * @return a policy that sends requests to each host in turn.
+     */
+    static HostSelectionPolicy roundRobin() {
+        return new RoundRobinPolicy();
+    }
+
+    /**
+     * @return a policy that sends each request to the host with the
+     *         fewest requests in flight.
+     */
+    static HostSelectionPolicy leastOutstandingRequests() {
+        return new LeastOutstandingPolicy();
+    }
+
+    /**
+     * @return a policy that picks hosts at random, weighted towards those
+     *         that have been answering fastest.
+     */
+    static HostSelectionPolicy latencyWeighted() {
+        return new LatencyWeightedPolicy();
+    }
+}
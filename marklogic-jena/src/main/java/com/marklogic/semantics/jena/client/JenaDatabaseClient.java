@@ -15,13 +15,21 @@
  */
 package com.marklogic.semantics.jena.client;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.Timer;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
 import org.apache.jena.graph.Graph;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.Triple;
 import org.apache.jena.query.ReadWrite;
+import org.apache.jena.query.ResultSet;
 import org.apache.jena.query.TxnType;
 import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.RDFDataMgr;
@@ -39,17 +47,17 @@ import com.marklogic.client.ResourceNotFoundException;
 import com.marklogic.client.Transaction;
 import com.marklogic.client.io.InputStreamHandle;
 import com.marklogic.client.io.OutputStreamHandle;
-import com.marklogic.client.semantics.GraphManager;
+import com.marklogic.client.io.OutputStreamSender;
 import com.marklogic.client.semantics.GraphPermissions;
 import com.marklogic.client.semantics.RDFMimeTypes;
 import com.marklogic.client.semantics.SPARQLQueryDefinition;
 import com.marklogic.client.semantics.SPARQLQueryManager;
 import com.marklogic.semantics.jena.MarkLogicDatasetGraph;
+import com.marklogic.semantics.jena.MarkLogicDatasetGraphOptions;
+import com.marklogic.semantics.jena.MarkLogicDatasetGraphOptions.BufferOptions;
+import com.marklogic.semantics.jena.MarkLogicJenaException;
 import com.marklogic.semantics.jena.MarkLogicTransactionException;
 
-import static com.marklogic.semantics.jena.client.TripleBuffer.DEFAULT_CACHE_MILLIS;
-import static com.marklogic.semantics.jena.client.TripleBuffer.DEFAULT_INITIAL_DELAY;
-
 /**
  * A class to encapsulate access to the Java API's DatabaseClient for Jena
  * users. Access the underlying Java API client with getClient();
@@ -58,16 +66,33 @@ import static com.marklogic.semantics.jena.client.TripleBuffer.DEFAULT_INITIAL_D
  */
 public class JenaDatabaseClient {
 
-    private GraphManager graphManager;
-    private SPARQLQueryManager sparqlQueryManager;
-    private TriplesWriteBuffer writeBuffer;
-    private TriplesDeleteBuffer deleteBuffer;
-    private DatabaseClient client;
-    private Transaction currentTransaction;
-    private Timer timer;
+    private List<Endpoint> endpoints;
+    private HostSelectionPolicy hostSelectionPolicy;
+    private SelectResultFormat selectResultFormat;
+    private GraphResultFormat graphResultFormat;
+    // null when the options turn the node cache off
+    private NodeCache nodeCache;
+    private MutationBuffer mutationBuffer;
+    // null when no transaction is open
+    private volatile OpenTransaction openTransaction;
+    private WritePipeline pipeline;
     private static Logger log = LoggerFactory
             .getLogger(JenaDatabaseClient.class);
 
+    /*
+     * A transaction and the host that opened it, published together so
+     * that no request sees one without the other.
+     */
+    private static final class OpenTransaction {
+        private final Endpoint endpoint;
+        private final Transaction transaction;
+
+        private OpenTransaction(Endpoint endpoint, Transaction transaction) {
+            this.endpoint = endpoint;
+            this.transaction = transaction;
+        }
+    }
+
     /**
      * Constructor.
      * 
@@ -80,16 +105,60 @@ public class JenaDatabaseClient {
     }
 
     public JenaDatabaseClient(DatabaseClient client, boolean periodicFlush) {
-        this.client = client;
-        this.graphManager = client.newGraphManager();
-        this.graphManager.setDefaultMimetype(RDFMimeTypes.NTRIPLES);
-        this.sparqlQueryManager = client.newSPARQLQueryManager();
-        if (periodicFlush) {
-            this.writeBuffer = new TriplesWriteBuffer(this);
-            this.deleteBuffer = new TriplesDeleteBuffer(this);
-            this.timer = new Timer();
-            timer.schedule(writeBuffer, DEFAULT_INITIAL_DELAY, DEFAULT_CACHE_MILLIS);
-            timer.schedule(deleteBuffer, DEFAULT_INITIAL_DELAY + 250, DEFAULT_CACHE_MILLIS);
+        this(client, new MarkLogicDatasetGraphOptions().withPeriodicFlush(periodicFlush));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param client
+     *            a Java Client API DatabaseClient. Can be made with
+     *            com.marklogic.client.DatabaseClientFactory
+     * @param options
+     *            buffer and write settings.
+     */
+    public JenaDatabaseClient(DatabaseClient client, MarkLogicDatasetGraphOptions options) {
+        this(Collections.singletonList(client), options);
+    }
+
+    /**
+     * Constructor for a REST server that runs on several MarkLogic hosts.
+     * Requests are spread over the hosts by the options' host selection
+     * policy, except that requests inside a transaction all go to the
+     * host that opened it.
+     *
+     * @param clients
+     *            one Java Client API DatabaseClient per host, all for the
+     *            same database.
+     * @param options
+     *            buffer, write and host selection settings.
+     */
+    public JenaDatabaseClient(List<DatabaseClient> clients, MarkLogicDatasetGraphOptions options) {
+        if (clients.isEmpty()) {
+            throw new IllegalArgumentException("At least one client is required");
+        }
+        List<Endpoint> hosts = new ArrayList<Endpoint>();
+        for (DatabaseClient client : clients) {
+            hosts.add(new Endpoint(client));
+        }
+        this.endpoints = Collections.unmodifiableList(hosts);
+        this.hostSelectionPolicy = options.getHostSelectionPolicy();
+        this.selectResultFormat = options.getSelectResultFormat();
+        this.graphResultFormat = options.getGraphResultFormat();
+        if (options.getNodeCacheSize() > 0) {
+            this.nodeCache = new NodeCache(options.getNodeCacheSize());
+        }
+        if (options.isPeriodicFlush()) {
+            BufferOptions bufferOptions = options.getAddBuffer();
+            this.mutationBuffer = new MutationBuffer(this);
+            this.mutationBuffer.configure(bufferOptions);
+            this.mutationBuffer.setFlushMode(options.getWriteFlushMode());
+            ScheduledExecutorService scheduler = options.getFlushScheduler() != null
+                    ? options.getFlushScheduler() : FlushScheduler.shared();
+            mutationBuffer.schedule(scheduler, bufferOptions.getInitialDelayMillis());
+            if (options.getPipelinedWrites() > 0) {
+                setPipelinedWrites(options.getPipelinedWrites());
+            }
         }
     }
 
@@ -97,13 +166,109 @@ public class JenaDatabaseClient {
      * Close the connection and free resources
      */
     public void close() {
-        if (writeBuffer != null) {
-            writeBuffer.cancel();
+        try {
+            if (pipeline != null) {
+                // batches in flight still need the hosts
+                if (mutationBuffer != null) {
+                    mutationBuffer.cancel();
+                }
+                try {
+                    pipeline.await();
+                } finally {
+                    pipeline.shutdown();
+                }
+            }
+        } finally {
+            if (mutationBuffer != null) {
+                mutationBuffer.close();
+            }
+            endpoints = null;
         }
-        if (timer != null) {
-            timer.cancel();
+    }
+
+    /**
+     * @return the hosts this client sends requests to, with their load.
+     */
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Set how requests are spread over the hosts.
+     * @param hostSelectionPolicy The policy used for subsequent requests.
+     */
+    public void setHostSelectionPolicy(HostSelectionPolicy hostSelectionPolicy) {
+        this.hostSelectionPolicy = hostSelectionPolicy;
+    }
+
+    public HostSelectionPolicy getHostSelectionPolicy() {
+        return hostSelectionPolicy;
+    }
+
+    /**
+     * Set the format in which MarkLogic returns SELECT results.
+     * @param selectResultFormat The format used by subsequent SELECTs.
+     */
+    public void setSelectResultFormat(SelectResultFormat selectResultFormat) {
+        this.selectResultFormat = selectResultFormat;
+    }
+
+    public SelectResultFormat getSelectResultFormat() {
+        return selectResultFormat;
+    }
+
+    /**
+     * Set the format in which MarkLogic returns CONSTRUCT and DESCRIBE
+     * results.
+     * @param graphResultFormat The format used by subsequent queries.
+     */
+    public void setGraphResultFormat(GraphResultFormat graphResultFormat) {
+        this.graphResultFormat = graphResultFormat;
+    }
+
+    public GraphResultFormat getGraphResultFormat() {
+        return graphResultFormat;
+    }
+
+    /**
+     * @return The cache shared by the results this client decodes, or
+     *         null if there is none.
+     */
+    public NodeCache getNodeCache() {
+        return nodeCache;
+    }
+
+    /*
+     * Work inside a transaction must use the host that opened it;
+     * otherwise any host will do.
+     */
+    private Endpoint route(OpenTransaction open) {
+        if (open != null) {
+            return open.endpoint;
+        }
+        if (endpoints.size() == 1) {
+            return endpoints.get(0);
+        }
+        return hostSelectionPolicy.select(endpoints);
+    }
+
+    // the request is given the transaction, or null, with its host
+    private <T> T call(BiFunction<Endpoint, Transaction, T> request) {
+        OpenTransaction open = openTransaction;
+        Endpoint endpoint = route(open);
+        long start = endpoint.requestStarted();
+        try {
+            return request.apply(endpoint, open == null ? null : open.transaction);
+        } finally {
+            endpoint.requestFinished(start);
         }
-        client = null;
+    }
+
+    private void run(BiConsumer<Endpoint, Transaction> request) {
+        call((endpoint, transaction) -> {
+            request.accept(endpoint, transaction);
+            return null;
+        });
     }
 
     /**
@@ -113,8 +278,7 @@ public class JenaDatabaseClient {
      *               and delete buffers are to be flushed.
      */
     public void setTimerCacheInterval(long millis) {
-        writeBuffer.setCacheInterval(millis);
-        deleteBuffer.setCacheInterval(millis);
+        mutationBuffer.setCacheInterval(millis);
     }
 
     /**
@@ -123,7 +287,55 @@ public class JenaDatabaseClient {
      * @return The current setting for writing and deleting triples, in milliseconds.
      */
     public long getTimerCacheInterval() {
-        return writeBuffer.cacheMillis;
+        return mutationBuffer.cacheMillis;
+    }
+
+    /**
+     * Set how the write cache sends buffered triples to MarkLogic.
+     * {@link MutationBuffer.FlushMode#GRAPH_MERGE} streams each buffered
+     * graph as N-Triples, which is much cheaper for bulk loads than the
+     * default SPARQL INSERT DATA with bound variables.
+     * @param flushMode The mode used by subsequent flushes.
+     */
+    public void setWriteFlushMode(MutationBuffer.FlushMode flushMode) {
+        mutationBuffer.setFlushMode(flushMode);
+    }
+
+    /**
+     * Get how the write cache sends buffered triples to MarkLogic.
+     * @return The current flush mode of the write cache.
+     */
+    public MutationBuffer.FlushMode getWriteFlushMode() {
+        return mutationBuffer.getFlushMode();
+    }
+
+    /**
+     * Turns pipelined writes on or off.  With pipelined writes, a full
+     * write buffer is handed to a background thread and
+     * callers continue to fill a fresh buffer while it is sent.
+     * Batches that share a graph are written in order, each after the
+     * one before it, while batches of other graphs go ahead.
+     * syncAdds() and syncDeletes() still wait for every outstanding
+     * batch, so reads after a sync see the writes.
+     * @param maxInFlightBatches The number of batches that may be sent
+     *                           concurrently before adds block, or zero to
+     *                           write on the calling thread.
+     */
+    public void setPipelinedWrites(int maxInFlightBatches) {
+        if (mutationBuffer == null) {
+            throw new MarkLogicJenaException(
+                    "Pipelined writes require periodic flush");
+        }
+        WritePipeline oldPipeline = this.pipeline;
+        this.pipeline = maxInFlightBatches > 0 ? new WritePipeline(maxInFlightBatches) : null;
+        mutationBuffer.setPipeline(pipeline);
+        if (oldPipeline != null) {
+            try {
+                oldPipeline.await();
+            } finally {
+                oldPipeline.shutdown();
+            }
+        }
     }
 
     /**
@@ -151,45 +363,68 @@ public class JenaDatabaseClient {
      *         {@link com.marklogic.client.semantics.SPARQLQueryDefinition}
      */
     public SPARQLQueryDefinition newQueryDefinition(String queryString) {
-        return this.sparqlQueryManager.newQueryDefinition(queryString);
+        return this.endpoints.get(0).getSparqlQueryManager()
+                .newQueryDefinition(queryString);
     }
 
-    // synchronization needed because of setting of page length
-    public synchronized void executeUpdate(SPARQLQueryDefinition qdef) {
-        this.sparqlQueryManager.clearPageLength();
-        this.sparqlQueryManager.executeUpdate(qdef, currentTransaction);
+    public void executeUpdate(SPARQLQueryDefinition qdef) {
+        run((endpoint, transaction) -> endpoint
+                .getSparqlQueryManager().executeUpdate(qdef, transaction));
     }
 
     public boolean executeAsk(SPARQLQueryDefinition qdef) {
-        return this.sparqlQueryManager.executeAsk(qdef, currentTransaction);
+        return call((endpoint, transaction) -> endpoint.getSparqlQueryManager()
+                .executeAsk(qdef, transaction));
     }
 
     public InputStreamHandle executeConstruct(SPARQLQueryDefinition qdef,
             InputStreamHandle handle) {
-        return this.sparqlQueryManager.executeConstruct(qdef, handle,
-                currentTransaction);
+        return call((endpoint, transaction) -> endpoint.getSparqlQueryManager()
+                .executeConstruct(qdef, handle, transaction));
     }
 
     public InputStreamHandle executeDescribe(SPARQLQueryDefinition qdef,
             InputStreamHandle handle) {
-        return this.sparqlQueryManager.executeDescribe(qdef, handle,
-                currentTransaction);
+        return call((endpoint, transaction) -> endpoint.getSparqlQueryManager()
+                .executeDescribe(qdef, handle, transaction));
     }
 
-    // synchronization needed because of setting of page length
-    public synchronized InputStreamHandle executeSelect(SPARQLQueryDefinition qdef,
+    /**
+     * Runs a SELECT query.  The page length is set on a query manager
+     * borrowed for this request alone, so concurrent SELECTs do not
+     * wait for each other.
+     *
+     * @param qdef the SELECT query.
+     * @param handle receives the results.
+     * @param offset the first result to return, or null.
+     * @param limit the maximum number of results, or null.
+     * @return the handle, with results.
+     */
+    public InputStreamHandle executeSelect(SPARQLQueryDefinition qdef,
             InputStreamHandle handle, Long offset, Long limit) {
-        if (limit == null) {
-            this.sparqlQueryManager.clearPageLength();
-        } else {
-            this.sparqlQueryManager.setPageLength(limit);
-        }
-        if (offset != null) {
-            return this.sparqlQueryManager.executeSelect(qdef, handle, offset,
-                    currentTransaction);
-        } else {
-            return this.sparqlQueryManager.executeSelect(qdef, handle,
-                    currentTransaction);
+        return call((endpoint, transaction) -> executeSelect(endpoint,
+                transaction, qdef, handle, offset, limit));
+    }
+
+    private InputStreamHandle executeSelect(Endpoint endpoint,
+            Transaction transaction, SPARQLQueryDefinition qdef,
+            InputStreamHandle handle, Long offset, Long limit) {
+        SPARQLQueryManager manager = endpoint.borrowSelectManager();
+        try {
+            if (limit == null) {
+                manager.clearPageLength();
+            } else {
+                manager.setPageLength(limit);
+            }
+            if (offset != null) {
+                return manager.executeSelect(qdef, handle, offset,
+                        transaction);
+            } else {
+                return manager.executeSelect(qdef, handle,
+                        transaction);
+            }
+        } finally {
+            endpoint.returnSelectManager(manager);
         }
     }
 
@@ -198,8 +433,45 @@ public class JenaDatabaseClient {
         return executeSelect(qdef, handle, null, null);
     }
 
+    /**
+     * Runs a SELECT query and returns solutions that are decoded as the
+     * response is read, in the client's SELECT result format.
+     *
+     * @param qdef the SELECT query.
+     * @param offset the first result to return, or null.
+     * @param limit the maximum number of results, or null.
+     * @return the solutions, in the order the server returns them.
+     */
+    public ResultSet executeSelectStreaming(SPARQLQueryDefinition qdef,
+            Long offset, Long limit) {
+        return executeSelectStreaming(qdef, offset, limit, selectResultFormat);
+    }
+
+    /**
+     * Runs a SELECT query and returns solutions decoded by the decoder
+     * registered for the format.  With the XML and TSV formats memory use
+     * does not grow with the size of the result; Jena's SPARQL JSON reader
+     * parses the whole document before returning the first row, unlike
+     * {@link SparqlJsonDecoder}.
+     *
+     * @param qdef the SELECT query.
+     * @param offset the first result to return, or null.
+     * @param limit the maximum number of results, or null.
+     * @param format the format to request the results in.
+     * @return the solutions, in the order the server returns them.
+     */
+    public ResultSet executeSelectStreaming(SPARQLQueryDefinition qdef,
+            Long offset, Long limit, SelectResultFormat format) {
+        InputStreamHandle handle = format.newHandle();
+        executeSelect(qdef, handle, offset, limit);
+        ResultDecoder decoder = ResultDecoderRegistry.get(format);
+        return nodeCache == null ? decoder.decode(handle.get())
+                : decoder.decode(handle.get(), nodeCache);
+    }
+
     public Iterator<String> listGraphUris() {
-        return this.graphManager.listGraphUris();
+        return call((endpoint, transaction) -> endpoint
+                .getGraphManager().listGraphUris());
     }
 
     public void mergeGraph(String uri, Graph graph) {
@@ -207,33 +479,48 @@ public class JenaDatabaseClient {
         OutputStreamRIOTSender sender = new OutputStreamRIOTSender(writer);
         sender.setGraph(graph);
         OutputStreamHandle handle = new OutputStreamHandle(sender);
-        this.graphManager.merge(uri, handle, currentTransaction);
+        run((endpoint, transaction) -> endpoint.getGraphManager().merge(uri, handle,
+                transaction));
+    }
+
+    /**
+     * Merges quads into their graphs, in one request.
+     * @param nquads writes the quads as N-Quads.
+     */
+    public void mergeQuads(OutputStreamSender nquads) {
+        OutputStreamHandle handle = new OutputStreamHandle(nquads);
+        handle.setMimetype(RDFMimeTypes.NQUADS);
+        run((endpoint, transaction) -> endpoint.getGraphManager().mergeGraphs(handle,
+                transaction));
     }
 
     public void deleteGraph(String uri) {
-        this.graphManager.delete(uri, currentTransaction);
+        run((endpoint, transaction) -> endpoint.getGraphManager().delete(uri,
+                transaction));
     }
 
     public GraphPermissions getGraphPermissions(String uri) {
-        return this.graphManager.getPermissions(uri, currentTransaction);
+        return call((endpoint, transaction) -> endpoint
+                .getGraphManager().getPermissions(uri, transaction));
     }
 
     public void mergeGraphPermissions(String uri, GraphPermissions permissions) {
-        this.graphManager
-                .mergePermissions(uri, permissions, currentTransaction);
+        run((endpoint, transaction) -> endpoint
+                .getGraphManager().mergePermissions(uri, permissions, transaction));
     }
 
     public void deletePermissions(String uri) {
-        this.graphManager.deletePermissions(uri, currentTransaction);
+        run((endpoint, transaction) -> endpoint
+                .getGraphManager().deletePermissions(uri, transaction));
     }
 
     public void writeGraphPermissions(String uri, GraphPermissions permissions) {
-        this.graphManager
-                .writePermissions(uri, permissions, currentTransaction);
+        run((endpoint, transaction) -> endpoint
+                .getGraphManager().writePermissions(uri, permissions, transaction));
     }
 
     public Transaction openTransaction() {
-        return this.client.openTransaction();
+        return route(openTransaction).getClient().openTransaction();
     }
 
     public Graph readDefaultGraph() {
@@ -244,7 +531,8 @@ public class JenaDatabaseClient {
         InputStreamHandle handle = new InputStreamHandle();
         Graph graph = GraphFactory.createDefaultGraph();
         try {
-            this.graphManager.read(uri, handle, currentTransaction);
+            run((endpoint, transaction) -> endpoint
+                    .getGraphManager().read(uri, handle, transaction));
             RDFDataMgr.read(graph, handle.get(), Lang.NTRIPLES);
         } catch (NullPointerException e) {
             log.debug("RDF Manager Throws execption for empty results");
@@ -260,7 +548,8 @@ public class JenaDatabaseClient {
         OutputStreamRIOTSender sender = new OutputStreamRIOTSender(writer);
         sender.setGraph(graph);
         OutputStreamHandle handle = new OutputStreamHandle(sender);
-        this.graphManager.write(uri, handle, currentTransaction);
+        run((endpoint, transaction) -> endpoint.getGraphManager().write(uri, handle,
+                transaction));
     }    
     /**
      * If timer is turned on (periodicFlush = true in constructor) 
@@ -277,8 +566,8 @@ public class JenaDatabaseClient {
      *            Object Node.
      */
     public void sinkQuad(Node g, Node s, Node p, Node o) {
-        if (writeBuffer != null) {
-            writeBuffer.add(g, s, p, o);
+        if (mutationBuffer != null) {
+            mutationBuffer.add(g, s, p, o);
         } else {
             Graph graph = GraphFactory.createDefaultGraph();
             graph.add(Triple.create(s,p,o));
@@ -289,35 +578,91 @@ public class JenaDatabaseClient {
 
     /**
      * Flushes the write cache, ensuring consistent server state before
-     * query/delete.
+     * query.  Adds and deletes share one cache, so this flushes both.
      */
     public void syncAdds() {
-        if (writeBuffer != null) {
-            writeBuffer.forceRun();
+        if (mutationBuffer != null) {
+            mutationBuffer.forceRun();
         }
     }
 
     /**
-     * Flushes the quads accumulated in the delete buffer
+     * Flushes the quads accumulated in the write cache.  The same as
+     * syncAdds().
      */
     public void syncDeletes() {
-        if (deleteBuffer != null) {
-            deleteBuffer.forceRun();
+        syncAdds();
+    }
+
+    /**
+     * Flushes the adds and deletes buffered for one graph, leaving other
+     * graphs buffered.
+     * @param graphNode The graph, or null for the default graph.
+     */
+    public void syncAdds(Node graphNode) {
+        if (mutationBuffer != null) {
+            mutationBuffer.forceRun(graphNode);
+        }
+    }
+
+    /**
+     * The same as syncAdds(Node).
+     * @param graphNode The graph, or null for the default graph.
+     */
+    public void syncDeletes(Node graphNode) {
+        syncAdds(graphNode);
+    }
+
+    /**
+     * @param graphNode The graph, or null for the default graph.
+     * @return Whether adds or deletes for the graph are buffered, or
+     *         still being written.
+     */
+    public boolean isDirty(Node graphNode) {
+        return mutationBuffer != null && mutationBuffer.isDirty(graphNode);
+    }
+
+    /**
+     * Sets what to tell when a batch from the write cache has been
+     * written, so that results read before it landed can be dropped.
+     * @param writeListener takes the graphs of each batch, or null.
+     */
+    public void setWriteListener(Consumer<Set<Node>> writeListener) {
+        if (mutationBuffer != null) {
+            mutationBuffer.setWriteListener(writeListener);
         }
     }
 
+    /**
+     * Deletes a quad, through the write cache if there is one.  The
+     * delete replaces an add of the same quad still in the cache.
+     *
+     * @param g
+     *            Graph node, or null for the default graph.
+     * @param s
+     *            Subject node
+     * @param p
+     *            Property node.
+     * @param o
+     *            Object Node.
+     */
     public void sinkDelete(Node g, Node s, Node p, Node o) {
-        if (deleteBuffer != null) {
-            deleteBuffer.add(g, s, p, o);
+        if (mutationBuffer != null) {
+            mutationBuffer.delete(g, s, p, o);
         } else {
-            // FIXME  no delete buffer.
+            TripleBuffer.TriplesHashMap deletes = new TripleBuffer.TriplesHashMap();
+            deletes.addTriple(g == null ? TripleBuffer.DEFAULT_GRAPH_NODE : g,
+                    Triple.create(s, p, o));
+            MutationBuffer.update(this, deletes, new TripleBuffer.TriplesHashMap());
         }
     }
 
-    private void checkCurrentTransaction() {
-        if (this.currentTransaction == null) {
+    private OpenTransaction checkCurrentTransaction() {
+        OpenTransaction open = this.openTransaction;
+        if (open == null) {
             throw new MarkLogicTransactionException("No open transaction");
         }
+        return open;
     }
 
     public void begin(ReadWrite readWrite) {
@@ -335,30 +680,30 @@ public class JenaDatabaseClient {
         begin();
     }
     private void begin() {
-        if (this.currentTransaction != null) {
+        if (this.openTransaction != null) {
             throw new MarkLogicTransactionException(
                     "Only one open transaction per MarkLogicDatasetGraph instance.");
         }
-        this.currentTransaction = openTransaction();
+        Endpoint endpoint = route(null);
+        Transaction transaction = endpoint.getClient().openTransaction();
+        this.openTransaction = new OpenTransaction(endpoint, transaction);
     }
 
     public void commit() {
-        checkCurrentTransaction();
-        this.currentTransaction.commit();
-        this.currentTransaction = null;
+        checkCurrentTransaction().transaction.commit();
+        this.openTransaction = null;
     }
 
     public void abort() {
         try {
-          checkCurrentTransaction();
-          currentTransaction.rollback();
+          checkCurrentTransaction().transaction.rollback();
         } finally {
-          currentTransaction = null;
+          openTransaction = null;
         }
     }
 
     public boolean isInTransaction() {
-        return (this.currentTransaction != null);
+        return (this.openTransaction != null);
     }
 
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+import org.apache.jena.atlas.lib.Closeable;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.ResultSetMgr;
+import org.apache.jena.sparql.engine.binding.Binding;
+
+/**
+ * Decodes SELECT results with the Jena reader for a result language.
+ * The response body is closed once the solutions are exhausted or the
+ * result set is closed, which Jena's readers do not do themselves.
+ */
+public class JenaResultDecoder implements ResultDecoder {
+
+    private final Lang lang;
+
+    /**
+     * @param lang one of the result set languages in
+     *             {@link org.apache.jena.riot.resultset.ResultSetLang}.
+     */
+    public JenaResultDecoder(Lang lang) {
+        this.lang = lang;
+    }
+
+    @Override
+    public ResultSet decode(InputStream in) {
+        ResultSet results = ResultSetMgr.read(in, lang);
+        return ResultDecoder.resultSet(results.getResultVars(),
+                new ClosingBindings(results, in));
+    }
+
+    /**
+     * The rows of a result set, which close the response body they are
+     * read from.
+     */
+    private static class ClosingBindings implements Iterator<Binding>, Closeable {
+
+        private final ResultSet results;
+        private final InputStream in;
+        private boolean closed = false;
+
+        ClosingBindings(ResultSet results, InputStream in) {
+            this.results = results;
+            this.in = in;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (closed) {
+                return false;
+            }
+            if (results.hasNext()) {
+                return true;
+            }
+            close();
+            return false;
+        }
+
+        @Override
+        public Binding next() {
+            return results.nextBinding();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing more to read
+            }
+        }
+    }
+}
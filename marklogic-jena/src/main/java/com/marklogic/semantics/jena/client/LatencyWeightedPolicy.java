@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks a host at random, with each host weighted by the inverse of its
+ * average response time.  A host that has not answered yet is weighted
+ * as the fastest, so that it gets measured.
+ */
+class LatencyWeightedPolicy implements HostSelectionPolicy {
+
+    @Override
+    public Endpoint select(List<Endpoint> endpoints) {
+        double[] weights = new double[endpoints.size()];
+        double fastest = Double.MAX_VALUE;
+        for (Endpoint endpoint : endpoints) {
+            double latency = endpoint.getAverageLatencyMillis();
+            if (latency > 0) {
+                fastest = Math.min(fastest, latency);
+            }
+        }
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            double latency = endpoints.get(i).getAverageLatencyMillis();
+            weights[i] = 1 / (latency > 0 ? latency
+                    : fastest == Double.MAX_VALUE ? 1 : fastest);
+            total += weights[i];
+        }
+        double pick = ThreadLocalRandom.current().nextDouble(total);
+        for (int i = 0; i < weights.length; i++) {
+            pick -= weights[i];
+            if (pick < 0) {
+                return endpoints.get(i);
+            }
+        }
+        return endpoints.get(weights.length - 1);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import java.util.*;
+
+import com.marklogic.client.semantics.SPARQLBindings;
+import com.marklogic.client.semantics.SPARQLQueryDefinition;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import com.marklogic.semantics.jena.MarkLogicDatasetGraph;
+
+/**
+ * A buffer that flushes a log of pending triple adds and deletes
+ * periodically.  Each flush sends the deletes and the adds together, as
+ * one DELETE DATA ; INSERT DATA request.  Adds held encoded are merged
+ * first, in a request of their own.
+ */
+public class MutationBuffer extends TripleBuffer {
+
+    private static Logger log = LoggerFactory.getLogger(MutationBuffer.class);
+
+    /**
+     * How buffered adds are sent to MarkLogic.
+     */
+    public enum FlushMode {
+        /**
+         * One SPARQL update request, with every term sent as a
+         * bound variable.
+         */
+        SPARQL_UPDATE,
+        /**
+         * One graph merge request per buffered graph, with the triples
+         * serialized as N-Triples.  Buffered deletes are sent first, as
+         * a separate DELETE DATA request.
+         */
+        GRAPH_MERGE
+    }
+
+    private FlushMode flushMode = FlushMode.SPARQL_UPDATE;
+
+    public MutationBuffer(JenaDatabaseClient client) {
+        super(client);
+    }
+
+    public void setFlushMode(FlushMode flushMode) {
+        this.flushMode = flushMode;
+    }
+
+    public FlushMode getFlushMode() {
+        return flushMode;
+    }
+
+    protected void write(Mutations batch) {
+        EncodedQuads encoded = batch.getEncoded();
+        if (encoded != null) {
+            client.mergeQuads(encoded);
+        }
+        if (flushMode == FlushMode.GRAPH_MERGE) {
+            if (!batch.getDeletes().isEmpty()) {
+                update(client, batch.getDeletes(), new TriplesHashMap());
+            }
+            mergeGraphs(batch.getAdds());
+        } else {
+            update(client, batch.getDeletes(), batch.getAdds());
+        }
+    }
+
+    private void mergeGraphs(TriplesHashMap adds) {
+        for (Node graphNode : adds.keySet()) {
+            client.mergeGraph(graphNode.getURI(), adds.get(graphNode));
+        }
+    }
+
+    /**
+     * Sends deletes and adds in one SPARQL update.  No quad may be in
+     * both, so the order of the two operations does not matter.
+     * @param client the client that sends the update.
+     * @param deletes the triples to delete, keyed by graph.
+     * @param adds the triples to add, keyed by graph.
+     */
+    static void update(JenaDatabaseClient client, TriplesHashMap deletes,
+            TriplesHashMap adds) {
+        SPARQLQueryDefinition qdef = client.newQueryDefinition("TMP");
+        StringBuffer entireQuery = new StringBuffer();
+        int bindNumber = 1;
+        if (!deletes.isEmpty()) {
+            entireQuery.append("DELETE DATA { ");
+            bindNumber = appendData(qdef, entireQuery, deletes, bindNumber);
+            entireQuery.append("} ");
+        }
+        if (!adds.isEmpty()) {
+            if (!deletes.isEmpty()) {
+                entireQuery.append("; ");
+            }
+            entireQuery.append("INSERT DATA { ");
+            appendData(qdef, entireQuery, adds, bindNumber);
+            entireQuery.append("} ");
+        }
+        if (entireQuery.length() == 0) {
+            return;
+        }
+        //log.debug(entireQuery.toString());
+        qdef.setSparql(entireQuery.toString());
+
+        client.executeUpdate(qdef);
+    }
+
+    private static int appendData(SPARQLQueryDefinition qdef,
+            StringBuffer entireQuery, TriplesHashMap batch, int bindNumber) {
+        SPARQLBindings bindings = qdef.getBindings();
+        for (Node graphNode : batch.keySet()) {
+            Graph g = batch.get(graphNode);
+            bindings.bind("g" + bindNumber, graphNode.getURI().toString());
+            String graphWrapper = "GRAPH ?g" + bindNumber + " { ";
+
+            List<String> graphPatterns = new ArrayList<>();
+            Iterator<Triple> triples = g.find(Node.ANY, Node.ANY, Node.ANY);
+            while (triples.hasNext()) {
+                Triple t = triples.next();
+                graphPatterns.add("?s" + bindNumber + " ?p" + bindNumber + " ?o" + bindNumber);
+                bindings.bind("s" + bindNumber, t.getSubject().getURI().toString() );
+                bindings.bind("p" + bindNumber, t.getPredicate().getURI().toString() );
+                MarkLogicDatasetGraph.bindObject(qdef, "o" + bindNumber, t.getObject());
+                bindNumber++;
+            }
+            graphWrapper += StringUtils.join(graphPatterns, " . ") + " } ";
+            entireQuery.append(graphWrapper);
+        }
+        return bindNumber;
+    }
+}
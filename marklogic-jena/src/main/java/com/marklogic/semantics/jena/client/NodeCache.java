@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+
+/**
+ * A bounded cache that hands out one Node object for each IRI or literal
+ * decoded from query results, so that the terms repeated across the rows
+ * of a large scan share one Node and one label string.
+ *
+ * The cache is direct-mapped: each term hashes to a single slot, and a
+ * new term replaces whatever the slot held.  Lookups take no lock, so
+ * one cache can be shared by every iterator of a dataset graph.
+ */
+public class NodeCache {
+
+    private final AtomicReferenceArray<Node> slots;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity the number of terms to keep, rounded up to a power
+     *        of two.  At least one.
+     */
+    public NodeCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<Node>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns the cached Node for an IRI, creating it only on a miss.
+     *
+     * @param iri the IRI.
+     * @return a URI node for iri.
+     */
+    public Node uri(String iri) {
+        int slot = slot(iri.hashCode());
+        Node node = slots.get(slot);
+        if (node != null && node.isURI() && node.getURI().equals(iri)) {
+            hits.increment();
+            return node;
+        }
+        misses.increment();
+        node = NodeFactory.createURI(iri);
+        slots.set(slot, node);
+        return node;
+    }
+
+    /**
+     * Returns the cached Node equal to node, or caches node.  Blank nodes,
+     * variables and null are returned as they are.
+     *
+     * @param node a decoded term.
+     * @return node, or an equal Node decoded earlier.
+     */
+    public Node intern(Node node) {
+        if (node == null || !(node.isURI() || node.isLiteral())) {
+            return node;
+        }
+        // the same slot as uri() for an IRI
+        int slot = slot(node.isURI() ? node.getURI().hashCode() : node.hashCode());
+        Node cached = slots.get(slot);
+        if (cached != null && (cached == node || cached.equals(node))) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        slots.set(slot, node);
+        return node;
+    }
+
+    private int slot(int hash) {
+        // spread the high bits, as HashMap does
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * @return the number of terms found in the cache.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of terms not found in the cache.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public int getCapacity() {
+        return slots.length();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.util.iterator.ClosableIterator;
+
+import com.marklogic.client.semantics.SPARQLQueryDefinition;
+
+/**
+ * Returns the quads matched by a SELECT ?g ?s ?p ?o pattern one page at
+ * a time.  While the caller works through a page, the next page is
+ * fetched in the background.  Once the iterator is closed, or a short
+ * page shows the results are exhausted, no further pages are requested.
+ *
+ * The query should be ordered on every selected term, so that the
+ * pages do not overlap or leave gaps.  Pages are fetched with separate
+ * requests, so a concurrent update to the matched graphs may still
+ * shift results between pages.
+ */
+public class PagedQuadsIterator implements ClosableIterator<Quad> {
+
+    private static final ExecutorService prefetcher = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "marklogic-jena-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final JenaDatabaseClient client;
+    private final SPARQLQueryDefinition qdef;
+    private final long pageSize;
+    private final Node graph;
+    private final Node subject;
+    private final Node predicate;
+    private final Node object;
+
+    // MarkLogic numbers results from 1
+    private long nextStart = 1;
+    private Iterator<Quad> page = Collections.emptyIterator();
+    private CompletableFuture<List<Quad>> nextPage;
+    private boolean lastPage = false;
+    private boolean closed = false;
+    private final AtomicInteger pagesRequested = new AtomicInteger();
+
+    /**
+     * @param client the client that runs each page's query.
+     * @param qdef the SELECT query, ordered, without LIMIT or OFFSET.
+     * @param pageSize the number of results to fetch per request.
+     * @param g the graph of every quad, when ?g is not selected, or null.
+     * @param s the subject of every quad, when ?s is not selected.
+     * @param p the predicate of every quad, when ?p is not selected.
+     * @param o the object of every quad, when ?o is not selected.
+     * @see QuadsIterator#QuadsIterator(org.apache.jena.query.ResultSet, Node, Node, Node, Node)
+     */
+    public PagedQuadsIterator(JenaDatabaseClient client,
+            SPARQLQueryDefinition qdef, long pageSize, Node g, Node s,
+            Node p, Node o) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be at least 1");
+        }
+        this.client = client;
+        this.qdef = qdef;
+        this.pageSize = pageSize;
+        this.graph = g;
+        this.subject = s;
+        this.predicate = p;
+        this.object = o;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!closed && !page.hasNext()) {
+            if (lastPage) {
+                return false;
+            }
+            List<Quad> quads = takeNextPage();
+            lastPage = quads.size() < pageSize;
+            if (!lastPage) {
+                prefetch();
+            }
+            page = quads.iterator();
+        }
+        return !closed;
+    }
+
+    @Override
+    public Quad next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+
+    /**
+     * Stops paging.  A page already being prefetched is discarded.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        page = Collections.emptyIterator();
+        if (nextPage != null) {
+            nextPage.cancel(false);
+        }
+    }
+
+    /**
+     * @return whether a page is being fetched in the background.
+     */
+    public boolean isPrefetching() {
+        CompletableFuture<List<Quad>> pending = nextPage;
+        return pending != null && !pending.isDone();
+    }
+
+    /**
+     * @return the number of page requests started so far.
+     */
+    public int getPagesRequested() {
+        return pagesRequested.get();
+    }
+
+    private void prefetch() {
+        long start = nextStart;
+        nextStart += pageSize;
+        nextPage = CompletableFuture.supplyAsync(() -> fetch(start), prefetcher);
+    }
+
+    private List<Quad> takeNextPage() {
+        if (nextPage == null) {
+            long start = nextStart;
+            nextStart += pageSize;
+            return fetch(start);
+        }
+        try {
+            return nextPage.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        } finally {
+            nextPage = null;
+        }
+    }
+
+    private List<Quad> fetch(long start) {
+        pagesRequested.incrementAndGet();
+        QuadsIterator results = new QuadsIterator(
+                client.executeSelectStreaming(qdef, start, pageSize,
+                        client.getSelectResultFormat().preservingTerms()),
+                client.getNodeCache(), graph, subject, predicate, object);
+        List<Quad> quads = new ArrayList<>();
+        try {
+            while (results.hasNext()) {
+                quads.add(results.next());
+            }
+        } finally {
+            results.close();
+        }
+        return quads;
+    }
+}
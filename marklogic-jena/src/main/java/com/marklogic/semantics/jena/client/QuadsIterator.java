@@ -16,58 +16,153 @@
 package com.marklogic.semantics.jena.client;
 
 import java.io.InputStream;
-import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
-import org.apache.jena.query.QuerySolution;
 import org.apache.jena.query.ResultSet;
-import org.apache.jena.query.ResultSetFactory;
 import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.util.iterator.ClosableIterator;
 
 /**
  * Returns quads as elements in an iterator, by processing the special purpose
  * SELECT ?g ?s ?p ?o pattern
+ *
+ * The results may be read from an open response, which is released once
+ * they are exhausted or the iterator is closed.  A caller that stops
+ * early must close the iterator.
  */
-public class QuadsIterator implements Iterator<Quad> {
+public class QuadsIterator implements ClosableIterator<Quad> {
+
+    private static final Var G = Var.alloc("g");
+    private static final Var S = Var.alloc("s");
+    private static final Var P = Var.alloc("p");
+    private static final Var O = Var.alloc("o");
 
     private ResultSet results;
-    private String graphName = null;
+    private NodeCache nodes = null;
+    private Node graph = null;
+    private Node subject = null;
+    private Node predicate = null;
+    private Node object = null;
+    private boolean closed = false;
 
     public QuadsIterator(InputStream inputStream) {
-        results = ResultSetFactory.fromJSON(inputStream);
+        results = ResultDecoderRegistry.get(SelectResultFormat.JSON).decode(inputStream);
     }
 
     public QuadsIterator(String graphName, InputStream inputStream) {
-        this.graphName = graphName;
-        results = ResultSetFactory.fromJSON(inputStream);
+        this(ResultDecoderRegistry.get(SelectResultFormat.JSON).decode(inputStream), graphNode(graphName),
+                null, null, null);
+    }
+
+    /**
+     * @param results solutions of a SELECT ?g ?s ?p ?o query, which may be
+     *                decoded as they are read.
+     */
+    public QuadsIterator(ResultSet results) {
+        this.results = results;
+    }
+
+    /**
+     * @param graphName the graph of every quad, when ?g is not selected.
+     * @param results solutions of a SELECT ?s ?p ?o query.
+     */
+    public QuadsIterator(String graphName, ResultSet results) {
+        this(results, graphNode(graphName), null, null, null);
+    }
+
+    /**
+     * Iterates over the solutions of a query that selects only some of
+     * ?g ?s ?p ?o.  Each term that is not selected is taken from the
+     * matching argument instead.
+     *
+     * @param results solutions of the query.
+     * @param g the graph of every quad, when ?g is not selected, or null.
+     * @param s the subject of every quad, when ?s is not selected.
+     * @param p the predicate of every quad, when ?p is not selected.
+     * @param o the object of every quad, when ?o is not selected.
+     */
+    public QuadsIterator(ResultSet results, Node g, Node s, Node p, Node o) {
+        this(results, null, g, s, p, o);
+    }
+
+    /**
+     * Iterates as {@link #QuadsIterator(ResultSet, Node, Node, Node, Node)}
+     * does, and shares the terms of each quad through a cache, so that
+     * the quads a caller keeps do not hold copies of the same IRI.
+     *
+     * @param results solutions of the query.
+     * @param nodes the cache of the dataset graph, or null.
+     * @param g the graph of every quad, when ?g is not selected, or null.
+     * @param s the subject of every quad, when ?s is not selected.
+     * @param p the predicate of every quad, when ?p is not selected.
+     * @param o the object of every quad, when ?o is not selected.
+     */
+    public QuadsIterator(ResultSet results, NodeCache nodes, Node g, Node s,
+            Node p, Node o) {
+        this.results = results;
+        this.nodes = nodes;
+        this.graph = g;
+        this.subject = s;
+        this.predicate = p;
+        this.object = o;
+    }
+
+    private static Node graphNode(String graphName) {
+        return graphName == null ? null : NodeFactory.createURI(graphName);
     }
 
     @Override
     public boolean hasNext() {
-        return results.hasNext();
+        if (closed) {
+            return false;
+        }
+        if (results.hasNext()) {
+            return true;
+        }
+        close();
+        return false;
     }
 
     @Override
     public Quad next() {
-        QuerySolution solution = results.next();
-        Node s = solution.get("s").asNode();
-        Node p = solution.get("p").asNode();
-        Node o = solution.get("o").asNode();
-        Node g = null;
-        if (solution.get("g") != null) {
-            g = solution.get("g").asNode();
-        } else {
-            if (graphName != null) {
-                g = NodeFactory.createURI(graphName);
-            }
+        if (!hasNext()) {
+            throw new NoSuchElementException();
         }
+        // bindings, rather than solutions, so no RDFNode is made per term
+        Binding binding = results.nextBinding();
+        Node g = get(binding, G, graph);
+        Node s = get(binding, S, subject);
+        Node p = get(binding, P, predicate);
+        Node o = get(binding, O, object);
         Quad quad = new Quad(g, s, p, o);
         return quad;
     }
 
+    private Node get(Binding binding, Var var, Node fixed) {
+        Node value = binding.get(var);
+        if (value == null) {
+            return fixed;
+        }
+        return nodes == null ? value : nodes.intern(value);
+    }
+
     @Override
     public void remove() {
         results.remove();
     }
-}
\ No newline at end of file
+
+    /**
+     * Releases the response the results are read from.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            results.close();
+        }
+    }
+}
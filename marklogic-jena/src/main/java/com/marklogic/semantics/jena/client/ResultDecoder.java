@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.sparql.engine.ResultSetStream;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.iterator.QueryIterPlainWrapper;
+
+/**
+ * Turns the body of a SELECT response into solutions.  Register an
+ * implementation with {@link ResultDecoderRegistry} to replace the Jena
+ * reader used for a {@link SelectResultFormat}.
+ *
+ * Implementations are shared between threads, so decode() must not keep
+ * per-response state in fields.
+ */
+public interface ResultDecoder {
+
+    /**
+     * @param in the response body.  The decoder closes it once the
+     *           solutions are exhausted or the result set is closed.
+     * @return the solutions, preferably decoded as they are read.
+     */
+    ResultSet decode(InputStream in);
+
+    /**
+     * Decodes solutions whose IRIs and literals are shared through a
+     * cache.  By default the cache is not used.
+     *
+     * @param in the response body.
+     * @param nodes the cache of the dataset graph the query came from.
+     * @return the solutions, preferably decoded as they are read.
+     */
+    default ResultSet decode(InputStream in, NodeCache nodes) {
+        return decode(in);
+    }
+
+    /**
+     * Adapts an iterator of bindings, such as a hand-written parser, to
+     * the ResultSet that decode() returns.  If bindings is
+     * {@link org.apache.jena.atlas.lib.Closeable}, closing the result set
+     * closes it.
+     *
+     * @param vars the names of the variables in the results.
+     * @param bindings the solutions.
+     * @return a result set over bindings.
+     */
+    static ResultSet resultSet(List<String> vars, Iterator<Binding> bindings) {
+        return new ResultSetStream(vars, null, QueryIterPlainWrapper.create(bindings));
+    }
+}
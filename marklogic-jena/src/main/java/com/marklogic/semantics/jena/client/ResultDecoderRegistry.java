@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The decoder used for each SELECT result format, by every
+ * JenaDatabaseClient.  Out of the box each format is read by Jena;
+ * {@link SparqlJsonDecoder} is a faster, streaming alternative for JSON.
+ */
+public class ResultDecoderRegistry {
+
+    private static final Map<SelectResultFormat, ResultDecoder> decoders = new ConcurrentHashMap<>();
+
+    static {
+        reset();
+    }
+
+    private ResultDecoderRegistry() {
+    }
+
+    /**
+     * Sets the decoder for a format, replacing the current one.
+     *
+     * @param format the result format.
+     * @param decoder the decoder for responses in that format.
+     */
+    public static void register(SelectResultFormat format, ResultDecoder decoder) {
+        decoders.put(format, decoder);
+    }
+
+    /**
+     * @param format the result format.
+     * @return the decoder for responses in that format.
+     */
+    public static ResultDecoder get(SelectResultFormat format) {
+        return decoders.get(format);
+    }
+
+    /**
+     * Restores the Jena reader for every format.
+     */
+    public static void reset() {
+        for (SelectResultFormat format : SelectResultFormat.values()) {
+            decoders.put(format, new JenaResultDecoder(format.getLang()));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.resultset.ResultSetLang;
+
+import com.marklogic.client.io.Format;
+import com.marklogic.client.io.InputStreamHandle;
+
+/**
+ * The format in which MarkLogic returns SELECT results.
+ */
+public enum SelectResultFormat {
+
+    /**
+     * SPARQL XML results.  Read incrementally, so rows are decoded as
+     * they arrive.  The default.
+     */
+    XML("application/sparql-results+xml", Format.XML, ResultSetLang.RS_XML),
+
+    /**
+     * SPARQL JSON results.  Jena reads the whole document before
+     * returning the first row; register {@link SparqlJsonDecoder} with
+     * {@link ResultDecoderRegistry} to stream them.
+     */
+    JSON("application/sparql-results+json", Format.JSON, ResultSetLang.RS_JSON),
+
+    /**
+     * Tab-separated values, with each term in Turtle syntax.  The most
+     * compact format that keeps every term intact, and read incrementally.
+     */
+    TSV("text/tab-separated-values", Format.TEXT, ResultSetLang.RS_TSV),
+
+    /**
+     * Comma-separated values.  Smallest on the wire, but every value comes
+     * back as a plain string: IRIs, datatypes and language tags are lost.
+     * find() and SPARQL SELECT queries use XML instead, so CSV only
+     * applies to internal queries that read nothing but lexical forms.
+     */
+    CSV("text/csv", Format.TEXT, ResultSetLang.RS_CSV);
+
+    private final String mimetype;
+    private final Format format;
+    private final Lang lang;
+
+    SelectResultFormat(String mimetype, Format format, Lang lang) {
+        this.mimetype = mimetype;
+        this.format = format;
+        this.lang = lang;
+    }
+
+    public String getMimetype() {
+        return mimetype;
+    }
+
+    /**
+     * @return the Jena language used to read results in this format.
+     */
+    public Lang getLang() {
+        return lang;
+    }
+
+    /**
+     * @return this format if it keeps RDF terms intact, otherwise XML.
+     */
+    public SelectResultFormat preservingTerms() {
+        return this == CSV ? XML : this;
+    }
+
+    /**
+     * @return a handle that asks MarkLogic for results in this format.
+     */
+    public InputStreamHandle newHandle() {
+        InputStreamHandle handle = new InputStreamHandle();
+        handle.setFormat(format);
+        handle.setMimetype(mimetype);
+        return handle;
+    }
+}
@@ -0,0 +1,537 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingBuilder;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+
+import com.marklogic.semantics.jena.MarkLogicJenaException;
+
+/**
+ * A hand-written decoder for SPARQL JSON results.  Jena's JSON reader
+ * builds a tree of the whole response before returning the first row;
+ * this decoder scans the bytes of the response and returns each row as
+ * soon as it has been read.  Repeated IRIs are decoded to the same Node
+ * objects through a {@link NodeCache}, shared with the dataset graph when
+ * one is given and otherwise made for the response.
+ *
+ * Rows are streamed when "head" precedes "results", as MarkLogic writes
+ * them.  Otherwise the rows are read in full before the first is returned.
+ */
+public class SparqlJsonDecoder implements ResultDecoder {
+
+    // the size of the cache made for a response decoded without one
+    private static final int RESPONSE_CACHE_SIZE = 4096;
+
+    @Override
+    public ResultSet decode(InputStream in) {
+        return decode(in, new NodeCache(RESPONSE_CACHE_SIZE));
+    }
+
+    @Override
+    public ResultSet decode(InputStream in, NodeCache nodes) {
+        Scanner scanner = new Scanner(in, nodes);
+        try {
+            scanner.start();
+        } catch (RuntimeException e) {
+            scanner.close();
+            throw e;
+        }
+        return ResultDecoder.resultSet(scanner.vars, scanner);
+    }
+
+    /**
+     * A pull parser over one response, which returns its rows.
+     */
+    static class Scanner implements Iterator<Binding>, Closeable,
+            org.apache.jena.atlas.lib.Closeable {
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[8192];
+        private int position = 0;
+        private int limit = 0;
+        private char[] chars = new char[256];
+        private int length;
+
+        private List<String> vars = null;
+        private final Map<String, Var> varCache = new HashMap<>();
+        private final NodeCache nodes;
+        // rows read ahead when "results" precedes "head"
+        private Iterator<Binding> buffered = null;
+        private Binding next = null;
+        private boolean done = false;
+
+        Scanner(InputStream in, NodeCache nodes) {
+            this.in = in;
+            this.nodes = nodes;
+        }
+
+        /*
+         * Reads up to the first row, or the whole document if the
+         * variables come after the rows.
+         */
+        void start() {
+            expect('{');
+            while (true) {
+                String key = readString();
+                expect(':');
+                if ("head".equals(key)) {
+                    readHead();
+                } else if ("results".equals(key)) {
+                    expect('{');
+                    if (openBindings()) {
+                        if (vars == null) {
+                            readAhead();
+                        }
+                        return;
+                    }
+                } else {
+                    skipValue();
+                }
+                if (!nextMember('}')) {
+                    break;
+                }
+            }
+            // no bindings at all
+            if (vars == null) {
+                vars = new ArrayList<>();
+            }
+            finish();
+        }
+
+        /*
+         * Reads members of the "results" object up to the bindings array.
+         * Returns false if the object ends without one.
+         */
+        private boolean openBindings() {
+            if (peek() == '}') {
+                position++;
+                return false;
+            }
+            while (true) {
+                String key = readString();
+                expect(':');
+                if ("bindings".equals(key)) {
+                    expect('[');
+                    return true;
+                }
+                skipValue();
+                if (!nextMember('}')) {
+                    return false;
+                }
+            }
+        }
+
+        private void readAhead() {
+            List<Binding> rows = new ArrayList<>();
+            Binding row;
+            while ((row = readRow()) != null) {
+                rows.add(row);
+            }
+            if (vars == null) {
+                vars = new ArrayList<>();
+            }
+            buffered = rows.iterator();
+        }
+
+        private void readHead() {
+            expect('{');
+            if (peek() == '}') {
+                position++;
+                return;
+            }
+            while (true) {
+                String key = readString();
+                expect(':');
+                if ("vars".equals(key)) {
+                    vars = new ArrayList<>();
+                    expect('[');
+                    if (peek() == ']') {
+                        position++;
+                    } else {
+                        do {
+                            String name = readString();
+                            vars.add(name);
+                            var(name);
+                        } while (nextMember(']'));
+                    }
+                } else {
+                    skipValue();
+                }
+                if (!nextMember('}')) {
+                    return;
+                }
+            }
+        }
+
+        /*
+         * Returns the next row of the bindings array, or null after the
+         * last, having read the rest of the document.
+         */
+        private Binding readRow() {
+            if (done) {
+                return null;
+            }
+            byte c = peek();
+            if (c == ',') {
+                position++;
+                c = peek();
+            }
+            if (c == ']') {
+                position++;
+                closeResults();
+                return null;
+            }
+            expect('{');
+            BindingBuilder row = BindingFactory.builder();
+            if (peek() == '}') {
+                position++;
+                return row.build();
+            }
+            do {
+                String name = readString();
+                expect(':');
+                row.add(var(name), readTerm());
+            } while (nextMember('}'));
+            return row.build();
+        }
+
+        /*
+         * After the bindings array: the rest of "results", then the rest
+         * of the document, which may still hold "head".
+         */
+        private void closeResults() {
+            while (nextMember('}')) {
+                readString();
+                expect(':');
+                skipValue();
+            }
+            while (nextMember('}')) {
+                String key = readString();
+                expect(':');
+                if ("head".equals(key)) {
+                    readHead();
+                } else {
+                    skipValue();
+                }
+            }
+            finish();
+        }
+
+        private Node readTerm() {
+            String type = null;
+            String value = null;
+            String lang = null;
+            String datatype = null;
+            expect('{');
+            do {
+                String key = readString();
+                expect(':');
+                String field = readString();
+                switch (key) {
+                case "type":
+                    type = field;
+                    break;
+                case "value":
+                    value = field;
+                    break;
+                case "xml:lang":
+                    lang = field;
+                    break;
+                case "datatype":
+                    datatype = field;
+                    break;
+                default:
+                    break;
+                }
+            } while (nextMember('}'));
+            if (type == null || value == null) {
+                throw error("Term without type or value");
+            }
+            switch (type) {
+            case "uri":
+                return nodes.uri(value);
+            case "bnode":
+                return NodeFactory.createBlankNode(value);
+            case "literal":
+            case "typed-literal":
+                if (lang != null) {
+                    return nodes.intern(NodeFactory.createLiteral(value, lang));
+                } else if (datatype != null) {
+                    return nodes.intern(NodeFactory.createLiteral(value,
+                            TypeMapper.getInstance().getSafeTypeByName(datatype)));
+                }
+                return nodes.intern(NodeFactory.createLiteral(value));
+            default:
+                throw error("Unknown term type " + type);
+            }
+        }
+
+        private Var var(String name) {
+            return varCache.computeIfAbsent(name, Var::alloc);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                if (buffered != null) {
+                    next = buffered.hasNext() ? buffered.next() : null;
+                } else {
+                    next = readRow();
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Binding next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Binding row = next;
+            next = null;
+            return row;
+        }
+
+        private void finish() {
+            done = true;
+            close();
+        }
+
+        @Override
+        public void close() {
+            done = true;
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing more to read
+            }
+        }
+
+        // ---- byte level
+
+        /*
+         * After a member of an object or array: true if a comma follows,
+         * false if the closing bracket does.
+         */
+        private boolean nextMember(char close) {
+            byte c = peek();
+            position++;
+            if (c == ',') {
+                return true;
+            }
+            if (c == close) {
+                return false;
+            }
+            throw error("Expected ',' or '" + close + "'");
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            position++;
+        }
+
+        /*
+         * Returns the next byte that is not white space, without
+         * consuming it.
+         */
+        private byte peek() {
+            while (true) {
+                if (position == limit && !fill()) {
+                    throw error("Unexpected end of results");
+                }
+                byte c = buffer[position];
+                if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                    position++;
+                } else {
+                    return c;
+                }
+            }
+        }
+
+        private boolean fill() {
+            try {
+                int read = in.read(buffer, 0, buffer.length);
+                if (read <= 0) {
+                    return false;
+                }
+                position = 0;
+                limit = read;
+                return true;
+            } catch (IOException e) {
+                throw new MarkLogicJenaException("Error reading results", e);
+            }
+        }
+
+        private int read() {
+            if (position == limit && !fill()) {
+                throw error("Unexpected end of results");
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        private String readString() {
+            expect('"');
+            length = 0;
+            while (true) {
+                int b = read();
+                if (b == '"') {
+                    return new String(chars, 0, length);
+                } else if (b == '\\') {
+                    append(unescape(read()));
+                } else if (b < 0x80) {
+                    append((char) b);
+                } else {
+                    appendCodePoint(decodeUtf8(b));
+                }
+            }
+        }
+
+        private char unescape(int c) {
+            switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw error("Bad unicode escape");
+                    }
+                    code = code * 16 + digit;
+                }
+                // a surrogate pair arrives as two escapes, one char each
+                return (char) code;
+            default:
+                throw error("Bad escape");
+            }
+        }
+
+        private int decodeUtf8(int lead) {
+            int extra;
+            int codePoint;
+            if ((lead & 0xe0) == 0xc0) {
+                extra = 1;
+                codePoint = lead & 0x1f;
+            } else if ((lead & 0xf0) == 0xe0) {
+                extra = 2;
+                codePoint = lead & 0x0f;
+            } else if ((lead & 0xf8) == 0xf0) {
+                extra = 3;
+                codePoint = lead & 0x07;
+            } else {
+                throw error("Bad UTF-8");
+            }
+            for (int i = 0; i < extra; i++) {
+                int b = read();
+                if ((b & 0xc0) != 0x80) {
+                    throw error("Bad UTF-8");
+                }
+                codePoint = (codePoint << 6) | (b & 0x3f);
+            }
+            return codePoint;
+        }
+
+        private void appendCodePoint(int codePoint) {
+            if (Character.isBmpCodePoint(codePoint)) {
+                append((char) codePoint);
+            } else {
+                append(Character.highSurrogate(codePoint));
+                append(Character.lowSurrogate(codePoint));
+            }
+        }
+
+        private void append(char c) {
+            if (length == chars.length) {
+                char[] larger = new char[chars.length * 2];
+                System.arraycopy(chars, 0, larger, 0, length);
+                chars = larger;
+            }
+            chars[length++] = c;
+        }
+
+        /*
+         * Skips a value of any type.  Only strings, objects and arrays
+         * need care; other values end at the next delimiter.
+         */
+        private void skipValue() {
+            byte c = peek();
+            if (c == '"') {
+                readString();
+            } else if (c == '{' || c == '[') {
+                char close = c == '{' ? '}' : ']';
+                position++;
+                if (peek() == close) {
+                    position++;
+                    return;
+                }
+                do {
+                    if (close == '}') {
+                        readString();
+                        expect(':');
+                    }
+                    skipValue();
+                } while (nextMember(close));
+            } else {
+                while (true) {
+                    if (position == limit && !fill()) {
+                        return;
+                    }
+                    byte b = buffer[position];
+                    if (b == ',' || b == '}' || b == ']' || b == ' '
+                            || b == '\n' || b == '\r' || b == '\t') {
+                        return;
+                    }
+                    position++;
+                }
+            }
+        }
+
+        private MarkLogicJenaException error(String message) {
+            return new MarkLogicJenaException("Malformed SPARQL JSON results: " + message);
+        }
+    }
+}
@@ -19,35 +19,401 @@ import org.apache.jena.graph.Graph;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.core.Quad;
 import org.apache.jena.sparql.graph.GraphFactory;
 import com.marklogic.semantics.jena.MarkLogicDatasetGraph;
+import com.marklogic.semantics.jena.MarkLogicDatasetGraphOptions.BufferOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.TimerTask;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * Base class for buffer than handles deletes
- * and adds for graphs backed by MarkLogic
+ * and adds for graphs backed by MarkLogic.
+ * A flush is scheduled only while the buffer holds triples.
+ *
+ * Adds and deletes are kept in one log, in which the last operation on
+ * a quad replaces any earlier one, so a flush may send the deletes and
+ * the adds in either order and still leave the quads as the caller did.
+ *
+ * The log is split into lock stripes, chosen by a hash of the quad, so
+ * that threads adding to the same dataset seldom wait for each other.
+ * Every operation on a quad goes to the same stripe, which keeps them in
+ * order.  A flush empties the stripes one at a time, so it may cut
+ * across adds made while it runs; those go in the next batch.
+ *
+ * Optionally, adds are held as encoded N-Quads instead, while the log
+ * holds no operation on their graph.  A flush sends the encoded quads
+ * before the rest of the log.
+ *
+ * Optionally, each operation is also appended to a {@link WriteAheadLog}
+ * before it is acknowledged.  A flush claims the records of the stripes
+ * it empties, and releases them once MarkLogic has the batch.
  */
-public abstract class TripleBuffer extends TimerTask {
+public abstract class TripleBuffer implements Runnable {
+
+    /**
+     * Pending triples, keyed by graph.  Keeps a running count of the
+     * triples held so that size checks on the add path do not have
+     * to visit every buffered graph.
+     */
+    @SuppressWarnings("serial")
+    protected static class TriplesHashMap extends ConcurrentHashMap<Node, Graph> {
+
+        private final LongAdder triplesCount = new LongAdder();
+        private final LongAdder estimatedBytes = new LongAdder();
+
+        /**
+         * Puts a triple in the map, if it is not there.
+         * @param graphNode the graph of the triple.
+         * @param triple the triple.
+         * @return whether the triple was added.
+         */
+        public boolean addTriple(Node graphNode, Triple triple) {
+            Graph graph = computeIfAbsent(graphNode,
+                    k -> GraphFactory.createGraphMem());
+            if (graph.contains(triple)) {
+                return false;
+            }
+            graph.add(triple);
+            triplesCount.increment();
+            estimatedBytes.add(estimateBytes(triple));
+            return true;
+        }
+
+        /**
+         * @param graphNode the graph of the triple.
+         * @param triple the triple.
+         * @return whether the map holds the triple.
+         */
+        public boolean containsTriple(Node graphNode, Triple triple) {
+            Graph graph = get(graphNode);
+            return graph != null && graph.contains(triple);
+        }
+
+        public long triplesCount() {
+            return triplesCount.sum();
+        }
+
+        /**
+         * Takes a triple out of the map, if it is there.
+         * @param graphNode the graph of the triple.
+         * @param triple the triple.
+         * @return whether the triple was removed.
+         */
+        public boolean removeTriple(Node graphNode, Triple triple) {
+            Graph graph = get(graphNode);
+            if (graph == null || !graph.contains(triple)) {
+                return false;
+            }
+            graph.delete(triple);
+            triplesCount.decrement();
+            estimatedBytes.add(-estimateBytes(triple));
+            if (graph.isEmpty()) {
+                remove(graphNode);
+            }
+            return true;
+        }
+
+        /**
+         * Takes one graph's triples out of the map.
+         * @param graphNode the graph.
+         * @return the graph's triples, or null if there were none.
+         */
+        public Graph removeGraph(Node graphNode) {
+            Graph graph = remove(graphNode);
+            if (graph == null) {
+                return null;
+            }
+            Iterator<Triple> triples = graph.find();
+            while (triples.hasNext()) {
+                triplesCount.decrement();
+                estimatedBytes.add(-estimateBytes(triples.next()));
+            }
+            return graph;
+        }
+
+        /**
+         * Puts a graph's triples in the map, which must not hold the graph.
+         * @param graphNode the graph.
+         * @param graph the triples, or null for none.
+         */
+        void putGraph(Node graphNode, Graph graph) {
+            if (graph == null) {
+                return;
+            }
+            put(graphNode, graph);
+            Iterator<Triple> triples = graph.find();
+            while (triples.hasNext()) {
+                triplesCount.increment();
+                estimatedBytes.add(estimateBytes(triples.next()));
+            }
+        }
+
+        /**
+         * @return a rough size, in bytes, of the buffered triples once
+         * serialized for the server.
+         */
+        public long estimatedBytes() {
+            return estimatedBytes.sum();
+        }
 
-    class TriplesHashMap extends ConcurrentHashMap<Node, Graph> {
+        @Override
+        public void clear() {
+            super.clear();
+            triplesCount.reset();
+            estimatedBytes.reset();
+        }
+
+        static long estimateBytes(Triple triple) {
+            return estimateBytes(triple.getSubject())
+                    + estimateBytes(triple.getPredicate())
+                    + estimateBytes(triple.getObject()) + 4;
+        }
 
-        public int triplesCount() {
-            return values().stream().mapToInt( v -> v.size()).sum();
+        private static long estimateBytes(Node node) {
+            if (node.isLiteral()) {
+                String language = node.getLiteralLanguage();
+                if (language != null && !language.isEmpty()) {
+                    return node.getLiteralLexicalForm().length() + language.length() + 3;
+                }
+                return node.getLiteralLexicalForm().length()
+                        + node.getLiteralDatatypeURI().length() + 6;
+            } else if (node.isURI()) {
+                return node.getURI().length() + 2;
+            } else {
+                return node.toString().length() + 2;
+            }
         }
     }
 
-    protected TriplesHashMap cache;
+    /**
+     * Pending adds and deletes, each keyed by graph.  A quad is pending
+     * in at most one of the two.  Adds may also be held encoded; those
+     * come before every other operation on their graph.  Not safe for
+     * use by several threads at once.
+     */
+    protected static class Mutations {
+
+        private final TriplesHashMap adds = new TriplesHashMap();
+        private final TriplesHashMap deletes = new TriplesHashMap();
+        private EncodedQuads encoded;
+
+        /**
+         * @param graphNode the graph of the triple.
+         * @param triple the triple to add.
+         * @return the change in the number of pending operations.
+         */
+        public int add(Node graphNode, Triple triple) {
+            int change = deletes.removeTriple(graphNode, triple) ? -1 : 0;
+            return adds.addTriple(graphNode, triple) ? change + 1 : change;
+        }
+
+        /**
+         * @param graphNode the graph of the triple.
+         * @param triple the triple to delete.
+         * @return the change in the number of pending operations.
+         */
+        public int delete(Node graphNode, Triple triple) {
+            int change = adds.removeTriple(graphNode, triple) ? -1 : 0;
+            return deletes.addTriple(graphNode, triple) ? change + 1 : change;
+        }
+
+        /**
+         * Encodes an add.  The caller checks that no other operation on
+         * the graph is pending.
+         * @param graphNode the graph of the triple.
+         * @param triple the triple to add.
+         * @return the size of the encoded quad, in bytes.
+         */
+        long encode(Node graphNode, Triple triple) {
+            if (encoded == null) {
+                encoded = new EncodedQuads();
+            }
+            return encoded.add(graphNode, triple);
+        }
+
+        /**
+         * @return the encoded adds, or null if there are none.
+         */
+        public EncodedQuads getEncoded() {
+            return encoded == null || encoded.isEmpty() ? null : encoded;
+        }
+
+        /**
+         * Puts back an operation from an earlier batch, unless a later
+         * operation on the same quad is pending.
+         * @param graphNode the graph of the triple.
+         * @param triple the triple.
+         * @param add whether the operation was an add.
+         * @return the change in the number of pending operations.
+         */
+        int restore(Node graphNode, Triple triple, boolean add) {
+            if (adds.containsTriple(graphNode, triple)
+                    || deletes.containsTriple(graphNode, triple)) {
+                return 0;
+            }
+            return add ? add(graphNode, triple) : delete(graphNode, triple);
+        }
+
+        /**
+         * Moves the operations of another log, which must hold none on
+         * the quads of this one, into this log.
+         * @param other the log to empty.
+         */
+        void absorb(Mutations other) {
+            absorb(adds, other.adds);
+            absorb(deletes, other.deletes);
+            if (other.encoded != null) {
+                if (encoded == null) {
+                    encoded = new EncodedQuads();
+                }
+                encoded.absorb(other.encoded);
+            }
+        }
+
+        /**
+         * Returns the buffers of the encoded adds to their pool.
+         */
+        void release() {
+            if (encoded != null) {
+                encoded.release();
+            }
+        }
+
+        private static void absorb(TriplesHashMap into, TriplesHashMap from) {
+            for (Map.Entry<Node, Graph> entry : from.entrySet()) {
+                Iterator<Triple> triples = entry.getValue().find();
+                while (triples.hasNext()) {
+                    into.addTriple(entry.getKey(), triples.next());
+                }
+            }
+            from.clear();
+        }
+
+        /**
+         * @return the triples to add, keyed by graph.
+         */
+        public TriplesHashMap getAdds() {
+            return adds;
+        }
+
+        /**
+         * @return the triples to delete, keyed by graph.
+         */
+        public TriplesHashMap getDeletes() {
+            return deletes;
+        }
+
+        /**
+         * @return the graphs with pending adds or deletes.
+         */
+        public Set<Node> graphs() {
+            Set<Node> graphs = new HashSet<>(adds.keySet());
+            graphs.addAll(deletes.keySet());
+            if (encoded != null) {
+                graphs.addAll(encoded.graphs());
+            }
+            return graphs;
+        }
+
+        public boolean containsGraph(Node graphNode) {
+            return logsGraph(graphNode) || containsEncoded(graphNode);
+        }
+
+        /**
+         * @param graphNode a graph.
+         * @return whether operations on the graph are held as triples.
+         */
+        boolean logsGraph(Node graphNode) {
+            return adds.containsKey(graphNode) || deletes.containsKey(graphNode);
+        }
+
+        /**
+         * @param graphNode a graph.
+         * @return whether encoded adds to the graph are held.
+         */
+        boolean containsEncoded(Node graphNode) {
+            return encoded != null && encoded.containsGraph(graphNode);
+        }
+
+        /**
+         * Takes one graph's pending adds and deletes out of this log.
+         * @param graphNode a graph.
+         * @return the graph's operations.
+         */
+        Mutations takeGraph(Node graphNode) {
+            Mutations taken = new Mutations();
+            taken.adds.putGraph(graphNode, adds.removeGraph(graphNode));
+            taken.deletes.putGraph(graphNode, deletes.removeGraph(graphNode));
+            return taken;
+        }
+
+        public boolean isEmpty() {
+            return adds.isEmpty() && deletes.isEmpty()
+                    && (encoded == null || encoded.isEmpty());
+        }
+
+        public long triplesCount() {
+            return adds.triplesCount() + deletes.triplesCount()
+                    + (encoded == null ? 0 : encoded.quadsCount());
+        }
+
+        public long estimatedBytes() {
+            return adds.estimatedBytes() + deletes.estimatedBytes()
+                    + (encoded == null ? 0 : encoded.bytes());
+        }
+    }
+
+    // the log is split into stripes, each guarded by its own lock
+    private static final int STRIPES = stripeCount(Runtime.getRuntime().availableProcessors());
+    private final Object[] locks = new Object[STRIPES];
+    private final Mutations[] stripes = new Mutations[STRIPES];
+    private final LongAdder pendingCount = new LongAdder();
+    private final LongAdder pendingBytes = new LongAdder();
     protected JenaDatabaseClient client;
+    private WritePipeline pipeline;
+    private volatile ScheduledExecutorService scheduler;
+    // set while a periodic flush is scheduled and has not started, so
+    // that producers arm one without taking the lock a flush holds
+    private final AtomicBoolean armed = new AtomicBoolean();
+    private volatile ScheduledFuture<?> scheduledFlush;
+    private volatile long firstFlushTime;
+    // the graphs of batches handed to the pipeline and not yet written,
+    // each with the last such batch, which completes once it is written
+    private final ConcurrentHashMap<Node, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+    // told the graphs of each batch once its write has ended
+    private volatile Consumer<Set<Node>> writeListener;
 
-    protected final static long DEFAULT_CACHE_SIZE = 199;
+    protected final static long DEFAULT_CACHE_SIZE = BufferOptions.DEFAULT_MAX_TRIPLES;
     protected long cacheSize = DEFAULT_CACHE_SIZE;
-    protected final static long DEFAULT_CACHE_MILLIS = 750;
-    protected final static long DEFAULT_INITIAL_DELAY = 750;
+    protected long cacheBytes = 0;
+    protected boolean encodeAdds = false;
+    private WriteAheadLog wal;
+    // segments claimed by batches that failed and were put back in the
+    // buffer, and the graphs of those batches; released once every
+    // operation put back is written, by whichever flush writes it
+    private final List<WriteAheadLog.Segment> retained = new ArrayList<>();
+    private final Set<Node> retainedGraphs = new HashSet<>();
+    protected final static long DEFAULT_CACHE_MILLIS = BufferOptions.DEFAULT_FLUSH_INTERVAL_MILLIS;
+    protected final static long DEFAULT_INITIAL_DELAY = BufferOptions.DEFAULT_INITIAL_DELAY_MILLIS;
     protected long cacheMillis = DEFAULT_CACHE_MILLIS;
     protected Date lastCacheAccess = new Date();
     protected static Node DEFAULT_GRAPH_NODE = NodeFactory
@@ -57,48 +423,532 @@ public abstract class TripleBuffer extends TimerTask {
             .getLogger(TripleBuffer.class);
 
     public TripleBuffer(JenaDatabaseClient client) {
-        super();
-        this.cache = new TriplesHashMap();
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+            stripes[i] = new Mutations();
+        }
         this.client = client;
     }
 
+    // a power of two, so that a stripe is picked with a mask
+    private static int stripeCount(int processors) {
+        int stripes = 1;
+        while (stripes < processors * 4 && stripes < 64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    private static int stripe(Node graphNode, Triple triple) {
+        int h = graphNode.hashCode() * 31 + triple.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
     public void setCacheInterval(long millis) {
         this.cacheMillis = millis;
     }
 
+    /**
+     * Applies batch size and interval settings to this buffer.
+     * @param options the settings for this buffer.
+     */
+    void configure(BufferOptions options) {
+        if (options.isEncodedAdds() && options.getWriteAheadLog() == null) {
+            // a failed batch of encoded adds is only kept by the log
+            throw new IllegalArgumentException("encodedAdds requires a writeAheadLog");
+        }
+        this.cacheSize = options.getMaxTriples();
+        this.cacheBytes = options.getMaxBytes();
+        this.cacheMillis = options.getFlushIntervalMillis();
+        this.encodeAdds = options.isEncodedAdds();
+        if (options.getWriteAheadLog() != null) {
+            this.wal = new WriteAheadLog(options.getWriteAheadLog(), STRIPES,
+                    options.isWriteAheadLogSync());
+            try {
+                List<Path> earlier = wal.getEarlierSegments();
+                for (Path segment : earlier) {
+                    WriteAheadLog.replay(segment, (add, quad) ->
+                            apply(add, quad.getGraph(), quad.asTriple()));
+                }
+                // the replayed operations are in this run's segments now
+                wal.delete(earlier);
+                if (!earlier.isEmpty()) {
+                    log.info("Replayed " + earlier.size() + " write-ahead log segments");
+                }
+            } catch (RuntimeException e) {
+                // the copies made so far count as written, and the lock is
+                // let go, so the next buffer on the directory replays the
+                // earlier segments once
+                List<WriteAheadLog.Segment> copies = new ArrayList<>();
+                for (int i = 0; i < STRIPES; i++) {
+                    synchronized (locks[i]) {
+                        copies.addAll(wal.claim(i));
+                    }
+                }
+                wal.release(copies);
+                wal.close();
+                wal = null;
+                throw e;
+            }
+        }
+    }
+
+    private boolean isFull() {
+        return pendingCount.sum() > cacheSize
+                || cacheBytes > 0 && pendingBytes.sum() > cacheBytes;
+    }
+
+    private boolean isEmpty() {
+        for (int i = 0; i < STRIPES; i++) {
+            synchronized (locks[i]) {
+                if (!stripes[i].isEmpty()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Arranges for buffered triples to be flushed by the given scheduler
+     * once they have waited for the cache interval.
+     * @param scheduler the scheduler that runs periodic flushes.
+     * @param initialDelayMillis the minimum time after this call before
+     *                           the first periodic flush.
+     */
+    synchronized void schedule(ScheduledExecutorService scheduler, long initialDelayMillis) {
+        this.scheduler = scheduler;
+        this.firstFlushTime = System.currentTimeMillis() + initialDelayMillis;
+        if (!isEmpty()) {
+            arm();
+        }
+    }
+
+    /**
+     * Stops periodic flushing.  Triples still in the buffer are not sent.
+     */
+    public synchronized void cancel() {
+        this.scheduler = null;
+        ScheduledFuture<?> flush = scheduledFlush;
+        if (flush != null) {
+            flush.cancel(false);
+            scheduledFlush = null;
+        }
+        armed.set(false);
+    }
+
+    /**
+     * Stops periodic flushing and releases the write-ahead log, if there
+     * is one.  Triples still in the buffer are not sent; with a log,
+     * they are replayed by the next buffer to open its directory.
+     */
+    public void close() {
+        cancel();
+        if (wal != null) {
+            wal.close();
+        }
+    }
+
+    private void arm() {
+        ScheduledExecutorService scheduler = this.scheduler;
+        if (scheduler == null || !armed.compareAndSet(false, true)) {
+            return;
+        }
+        long delay = Math.max(cacheMillis,
+                firstFlushTime - System.currentTimeMillis());
+        scheduledFlush = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets what to tell when a batch has been written.  It is told even
+     * when the write fails, since part of the batch may have landed.
+     * @param writeListener takes the graphs of each batch, or null.
+     */
+    void setWriteListener(Consumer<Set<Node>> writeListener) {
+        this.writeListener = writeListener;
+    }
+
+    private void written(Set<Node> graphs) {
+        Consumer<Set<Node>> listener = writeListener;
+        if (listener != null) {
+            listener.accept(graphs);
+        }
+    }
+
+    /**
+     * Hands full buffers to a pipeline instead of writing them on the
+     * calling thread.
+     * @param pipeline the pipeline to use, or null to write synchronously.
+     */
+    synchronized void setPipeline(WritePipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * The scheduled flush.  A failed flush is logged rather than thrown,
+     * and is tried again after the cache interval if triples remain.
+     */
     @Override
     public void run() {
-        Date now = new Date();
-        if (cache.triplesCount() > cacheSize || cache.size() > 0
-                && now.getTime() - lastCacheAccess.getTime() > cacheMillis) {
+        if (scheduler == null) {
+            // cancelled after this flush was scheduled
+            return;
+        }
+        // producers may arm the next flush while this one writes
+        armed.set(false);
+        try {
             log.debug("Flushing triples buffer.");
             flush();
+        } catch (RuntimeException e) {
+            log.error("Scheduled flush of triples buffer failed", e);
+        }
+        if (!isEmpty()) {
+            arm();
+        }
+    }
+
+    /**
+     * Sends the buffered triples to MarkLogic.  The stripes are swapped
+     * for empty ones first, so that callers can keep adding triples
+     * while the batch is written; when pipelined, it is written in the
+     * background.  A batch that fails to write synchronously is put
+     * back in the buffer, unless adds are encoded.
+     */
+    protected synchronized void flush() {
+        Mutations batch = null;
+        List<WriteAheadLog.Segment> segments = new ArrayList<>();
+        for (int i = 0; i < STRIPES; i++) {
+            Mutations taken;
+            synchronized (locks[i]) {
+                if (wal != null) {
+                    segments.addAll(wal.claim(i));
+                }
+                taken = stripes[i];
+                if (taken.isEmpty()) {
+                    continue;
+                }
+                stripes[i] = new Mutations();
+            }
+            if (batch == null) {
+                batch = taken;
+            } else {
+                batch.absorb(taken);
+            }
+        }
+        if (batch == null) {
+            // whatever the records held has been written already
+            if (!segments.isEmpty()) {
+                wal.release(segments);
+            }
+            releaseRetained();
+            return;
+        }
+        pendingCount.add(-batch.triplesCount());
+        pendingBytes.add(-batch.estimatedBytes());
+        if (pipeline == null) {
+            writeOrRestore(batch, segments);
+        } else {
+            submit(batch, segments);
+        }
+        lastCacheAccess = new Date();
+    }
+
+    // caller holds the lock on this buffer; the segments of a batch that
+    // fails are left for the next start to replay.  Each batch follows
+    // the earlier batches of its graphs, and waits for them on its
+    // pipeline thread, so batches of other graphs, or of the same graph,
+    // still fill the pipeline.  The segments are null when only one graph
+    // is written.
+    private void submit(Mutations batch, List<WriteAheadLog.Segment> segments) {
+        Set<Node> graphs = batch.graphs();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        List<CompletableFuture<Void>> earlier = new ArrayList<>();
+        for (Node graphNode : graphs) {
+            CompletableFuture<Void> previous = inFlight.put(graphNode, done);
+            if (previous != null) {
+                earlier.add(previous);
+            }
+        }
+        // a full batch holds every operation put back after a failure
+        List<WriteAheadLog.Segment> carried = new ArrayList<>();
+        if (segments != null) {
+            carried.addAll(retained);
+            retained.clear();
+            retainedGraphs.clear();
+        }
+        pipeline.submit(() -> {
+            try {
+                // earlier batches run on threads of their own, having
+                // been submitted first
+                for (CompletableFuture<Void> previous : earlier) {
+                    previous.join();
+                }
+                write(batch);
+                if (wal != null) {
+                    if (segments != null) {
+                        wal.release(segments);
+                    }
+                    wal.release(carried);
+                }
+            } finally {
+                batch.release();
+                for (Node graphNode : graphs) {
+                    inFlight.remove(graphNode, done);
+                }
+                done.complete(null);
+                written(graphs);
+            }
+        });
+    }
+
+    /**
+     * Sends the triples buffered for one graph to MarkLogic after the
+     * graph's batches in flight, and leaves the other graphs buffered.
+     * The batch is written on the calling thread, or when pipelined,
+     * handed to the pipeline behind the graph's earlier batches.  If the
+     * graph has encoded adds, the whole buffer is sent.
+     * @param graphNode the graph.
+     */
+    protected synchronized void flush(Node graphNode) {
+        for (int i = 0; i < STRIPES; i++) {
+            synchronized (locks[i]) {
+                if (!stripes[i].containsEncoded(graphNode)) {
+                    continue;
+                }
+            }
+            // encoded quads cannot be split by graph, so send them all
+            flush();
+            return;
+        }
+        Mutations batch = null;
+        for (int i = 0; i < STRIPES; i++) {
+            Mutations taken;
+            synchronized (locks[i]) {
+                if (!stripes[i].containsGraph(graphNode)) {
+                    continue;
+                }
+                taken = stripes[i].takeGraph(graphNode);
+            }
+            if (batch == null) {
+                batch = taken;
+            } else {
+                batch.absorb(taken);
+            }
+        }
+        if (batch == null) { return; }
+        pendingCount.add(-batch.triplesCount());
+        pendingBytes.add(-batch.estimatedBytes());
+        if (pipeline == null) {
+            writeOrRestore(batch, null);
         } else {
+            submit(batch, null);
+        }
+        lastCacheAccess = new Date();
+    }
+
+    // operations put back after a failure could land behind newer encoded
+    // adds, so with encoding on a failed batch is dropped; its segments
+    // are then left for the next start to replay.  The segments are null
+    // when only one graph is written.
+    private void writeOrRestore(Mutations batch, List<WriteAheadLog.Segment> segments) {
+        Set<Node> graphs = batch.graphs();
+        try {
+            write(batch);
+        } catch (RuntimeException e) {
+            if (!encodeAdds) {
+                restore(batch.getAdds(), true);
+                restore(batch.getDeletes(), false);
+                if (segments != null) {
+                    retained.addAll(segments);
+                    retainedGraphs.addAll(graphs);
+                }
+            }
+            throw e;
+        } finally {
+            batch.release();
+            written(graphs);
+        }
+        if (wal == null) {
             return;
         }
+        if (segments != null) {
+            wal.release(segments);
+            releaseRetained();
+        } else {
+            retainedGraphs.removeAll(graphs);
+            if (retainedGraphs.isEmpty()) {
+                releaseRetained();
+            }
+        }
+    }
+
+    // caller holds the lock on this buffer
+    private void releaseRetained() {
+        if (wal != null) {
+            wal.release(retained);
+        }
+        retained.clear();
+        retainedGraphs.clear();
     }
 
-    protected abstract void flush();
+    // puts back the operations of a failed batch that nothing has replaced
+    private void restore(TriplesHashMap triples, boolean add) {
+        for (Map.Entry<Node, Graph> entry : triples.entrySet()) {
+            Node graphNode = entry.getKey();
+            Iterator<Triple> it = entry.getValue().find();
+            while (it.hasNext()) {
+                Triple triple = it.next();
+                int i = stripe(graphNode, triple);
+                int change;
+                synchronized (locks[i]) {
+                    change = stripes[i].restore(graphNode, triple, add);
+                }
+                count(change, change * TriplesHashMap.estimateBytes(triple));
+            }
+        }
+    }
+
+    /**
+     * Writes one batch of adds and deletes to MarkLogic.
+     * @param batch the triples to add and delete, keyed by graph.
+     */
+    protected abstract void write(Mutations batch);
 
+    /**
+     * Flushes the buffer and waits for any batches still in flight.
+     */
     public void forceRun() {
         flush();
+        WritePipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            pipeline.await();
+        }
     }
 
-    public synchronized void add(Node g, Node s, Node p, Node o) {
-        Triple newTiple = new Triple(s, p, o);
-        if (g == null) {
-            g = DEFAULT_GRAPH_NODE;
+    /**
+     * Flushes the triples buffered for one graph, and waits for the
+     * graph's batches still in flight.  A graph with nothing buffered or
+     * in flight costs nothing.
+     * @param graphNode the graph, or null for the default graph.
+     */
+    public void forceRun(Node graphNode) {
+        Node key = bufferKey(graphNode);
+        flush(key);
+        // the last batch of the graph follows every earlier one
+        CompletableFuture<Void> last = inFlight.get(key);
+        if (last != null) {
+            last.join();
         }
-        if (cache.containsKey(g)) {
-            cache.get(g).add(newTiple);
-        } else {
-            Graph graph = GraphFactory.createGraphMem();
-            graph.add(newTiple);
-            cache.put(g, graph);
+        WritePipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            pipeline.checkFailure();
         }
-        if (cache.triplesCount() > cacheSize) {
-            log.debug("Size of cache big enough to flush.");
-            flush();
+    }
+
+    /**
+     * @param graphNode the graph, or null for the default graph.
+     * @return whether triples for the graph are buffered, or in flight to
+     *         MarkLogic.
+     */
+    public boolean isDirty(Node graphNode) {
+        Node key = bufferKey(graphNode);
+        if (inFlight.containsKey(key)) {
+            return true;
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            synchronized (locks[i]) {
+                if (stripes[i].containsGraph(key)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the graphs that have triples buffered or in flight.
+     */
+    public Set<Node> getDirtyGraphs() {
+        Set<Node> graphs = new HashSet<>(inFlight.keySet());
+        for (int i = 0; i < STRIPES; i++) {
+            synchronized (locks[i]) {
+                graphs.addAll(stripes[i].graphs());
+            }
+        }
+        return graphs;
+    }
+
+    private static Node bufferKey(Node graphNode) {
+        return graphNode == null || Quad.isDefaultGraph(graphNode)
+                ? DEFAULT_GRAPH_NODE : graphNode;
+    }
+
+    /**
+     * Buffers an add.  It replaces a delete of the same quad still in
+     * the buffer.  Safe to call from several threads at once.
+     * @param g the graph, or null for the default graph.
+     * @param s the subject.
+     * @param p the predicate.
+     * @param o the object.
+     */
+    public void add(Node g, Node s, Node p, Node o) {
+        apply(true, bufferKey(g), new Triple(s, p, o));
+        flushIfFull();
+    }
+
+    /**
+     * Buffers a delete.  It replaces an add of the same quad still in
+     * the buffer.  Safe to call from several threads at once.
+     * @param g the graph, or null for the default graph.
+     * @param s the subject.
+     * @param p the predicate.
+     * @param o the object.
+     */
+    public void delete(Node g, Node s, Node p, Node o) {
+        apply(false, bufferKey(g), new Triple(s, p, o));
+        flushIfFull();
+    }
+
+    private void apply(boolean add, Node key, Triple triple) {
+        int i = stripe(key, triple);
+        int change;
+        long bytes;
+        synchronized (locks[i]) {
+            if (wal != null) {
+                wal.append(i, add, key, triple);
+            }
+            Mutations stripe = stripes[i];
+            if (add && encodeAdds && !stripe.logsGraph(key)) {
+                change = 1;
+                bytes = stripe.encode(key, triple);
+            } else {
+                change = add ? stripe.add(key, triple) : stripe.delete(key, triple);
+                bytes = change * TriplesHashMap.estimateBytes(triple);
+            }
+        }
+        count(change, bytes);
+    }
+
+    private void count(int change, long bytes) {
+        if (change != 0) {
+            pendingCount.add(change);
+            pendingBytes.add(bytes);
+        }
+    }
+
+    private void flushIfFull() {
+        if (!isFull()) {
+            if (!armed.get()) {
+                arm();
+            }
+            return;
+        }
+        synchronized (this) {
+            // another thread may have flushed while this one waited
+            if (isFull()) {
+                log.debug("Size of cache big enough to flush.");
+                flush();
+            }
         }
     }
 }
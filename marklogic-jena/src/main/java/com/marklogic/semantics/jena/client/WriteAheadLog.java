@@ -0,0 +1,422 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.core.Quad;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.marklogic.semantics.jena.MarkLogicJenaException;
+
+/**
+ * Keeps buffered adds and deletes in memory-mapped segment files until
+ * MarkLogic has them, so that they outlive a crash of the JVM, and with
+ * sync on, of the machine.  Each stripe of the buffer appends to a
+ * segment of its own, so every operation on a quad is in one file, in
+ * order.  A record is written before its length, and a segment reads as
+ * far as the first zero length, so a torn record is ignored.
+ *
+ * A flush claims the records appended to each stripe since the last
+ * flush, and releases them once MarkLogic has the batch.  A segment
+ * starts with the offset up to which its records are written, which
+ * moves on whenever no claim on it is outstanding.  A stripe keeps
+ * appending to its segment until it is full; a full segment is unmapped
+ * and deleted once every record in it is written.
+ *
+ * The segments of earlier runs are replayed on start, from their
+ * written offsets.  The log holds a lock on its directory until it is
+ * closed, so that no other buffer, in this process or another, replays
+ * or deletes its live segments.  The methods that take a stripe expect
+ * the caller to hold that stripe's lock.
+ */
+public class WriteAheadLog {
+
+    static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+    // the written offset, ahead of the records
+    private static final int HEADER = 4;
+    private static final byte ADD = 1;
+    private static final byte DELETE = 2;
+    private static final String SUFFIX = ".wal";
+    private static final String LOCK_FILE = "lock";
+
+    private static Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    // unmaps a segment when it is deleted rather than when it is
+    // collected; null where the JDK does not allow it
+    private static final Consumer<ByteBuffer> UNMAPPER = unmapper();
+
+    /**
+     * A segment file, mapped until it is deleted.
+     */
+    public static final class Segment {
+        private final Path path;
+        private MappedByteBuffer buffer;
+        // records appended since the last claim; set under the stripe's lock
+        private volatile boolean unclaimed = false;
+        // the end of the records claimed so far
+        private int claimedTo = HEADER;
+        // batches that hold records of this segment and are not yet written
+        private int claims = 0;
+        private boolean current = true;
+
+        private Segment(Path path, MappedByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+            buffer.position(HEADER);
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        private synchronized void claim() {
+            claims++;
+            claimedTo = buffer.position();
+            unclaimed = false;
+        }
+
+        // whether the segment may be deleted
+        private synchronized boolean retire() {
+            current = false;
+            return claims == 0 && !unclaimed;
+        }
+
+        // whether the segment may be deleted
+        private synchronized boolean release() {
+            if (--claims > 0) {
+                return false;
+            }
+            // every record claimed so far is written
+            buffer.putInt(0, claimedTo);
+            return !current && !unclaimed;
+        }
+
+        private synchronized void discard() {
+            if (UNMAPPER != null) {
+                UNMAPPER.accept(buffer);
+            }
+            buffer = null;
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Cannot delete write-ahead log segment " + path, e);
+            }
+        }
+    }
+
+    private final Path directory;
+    private final boolean sync;
+    private final long generation;
+    private final List<Path> earlier;
+    private final Segment[] current;
+    // full segments with unclaimed records, by stripe
+    private final List<List<Segment>> full;
+    private final long[] sequence;
+    private final FileChannel lockChannel;
+    private volatile boolean closed = false;
+
+    /**
+     * Opens the log, creating the directory if need be.  Only one buffer
+     * may use a directory at a time.
+     * @param directory where segments are kept.
+     * @param stripes the number of stripes in the buffer.
+     * @param sync whether each append waits until its record is on disk.
+     * @throws MarkLogicJenaException if another log has the directory open.
+     */
+    public WriteAheadLog(Path directory, int stripes, boolean sync) {
+        this.directory = directory;
+        this.sync = sync;
+        this.current = new Segment[stripes];
+        this.full = new ArrayList<>(stripes);
+        for (int i = 0; i < stripes; i++) {
+            full.add(new ArrayList<>());
+        }
+        this.sequence = new long[stripes];
+        this.lockChannel = lock(directory);
+        List<Path> segments = new ArrayList<>();
+        try {
+            try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+                for (Path path : paths) {
+                    segments.add(path);
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw new MarkLogicJenaException("Cannot open write-ahead log in " + directory, e);
+        }
+        // names sort by generation, then stripe, then sequence
+        Collections.sort(segments);
+        long last = 0;
+        for (Path segment : segments) {
+            String name = segment.getFileName().toString();
+            try {
+                last = Math.max(last, Long.parseLong(name.substring(0, name.indexOf('-'))));
+            } catch (RuntimeException e) {
+                log.warn("Ignoring unexpected file in write-ahead log: " + segment);
+            }
+        }
+        this.generation = last + 1;
+        this.earlier = segments;
+    }
+
+    private static Consumer<ByteBuffer> unmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            return buffer -> {
+                try {
+                    invokeCleaner.invoke(unsafe, buffer);
+                } catch (ReflectiveOperationException e) {
+                    log.debug("Cannot unmap write-ahead log segment", e);
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Write-ahead log segments are unmapped when collected", e);
+            return null;
+        }
+    }
+
+    // the lock is released when the returned channel is closed
+    private static FileChannel lock(Path directory) {
+        FileChannel channel;
+        try {
+            Files.createDirectories(directory);
+            channel = FileChannel.open(directory.resolve(LOCK_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new MarkLogicJenaException("Cannot open write-ahead log in " + directory, e);
+        }
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (IOException | OverlappingFileLockException e) {
+            // held through another channel of this process
+            lock = null;
+        }
+        if (lock == null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Cannot close write-ahead log lock in " + directory, e);
+            }
+            throw new MarkLogicJenaException("Write-ahead log in " + directory
+                    + " is in use by another buffer; give each buffer a directory of its own");
+        }
+        return channel;
+    }
+
+    /**
+     * Releases the directory.  Segments not yet deleted are replayed by
+     * the next log to open it.  Appends after this fail.
+     */
+    public void close() {
+        closed = true;
+        try {
+            lockChannel.close();
+        } catch (IOException e) {
+            log.warn("Cannot release write-ahead log in " + directory, e);
+        }
+    }
+
+    /**
+     * @return the segments left by earlier runs, oldest first.
+     */
+    public List<Path> getEarlierSegments() {
+        return earlier;
+    }
+
+    /**
+     * Reads the operations of one segment, in the order they were made.
+     * @param segment the segment.
+     * @param operation called with whether each operation is an add,
+     *                  and its quad.
+     */
+    public static void replay(Path segment, BiConsumer<Boolean, Quad> operation) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(segment);
+        } catch (IOException e) {
+            throw new MarkLogicJenaException("Cannot read write-ahead log segment " + segment, e);
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.remaining() < HEADER) {
+            return;
+        }
+        // records before the written offset reached MarkLogic
+        in.position(Math.min(Math.max(HEADER, in.getInt(0)), bytes.length));
+        BitSet adds = new BitSet();
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        int count = 0;
+        while (in.remaining() >= 4) {
+            int length = in.getInt();
+            if (length < 1 || length > in.remaining()) {
+                break;
+            }
+            adds.set(count++, in.get() == ADD);
+            lines.write(bytes, in.position(), length - 1);
+            in.position(in.position() + length - 1);
+        }
+        RDFParser.source(new ByteArrayInputStream(lines.toByteArray()))
+                .lang(Lang.NQUADS)
+                .parse(new StreamRDFBase() {
+                    private int next = 0;
+
+                    @Override
+                    public void quad(Quad quad) {
+                        operation.accept(adds.get(next++), quad);
+                    }
+                });
+    }
+
+    /**
+     * Appends one operation to a stripe's segment.  It is in the page
+     * cache when this returns, and with sync on, on disk.
+     * @param stripe the stripe.
+     * @param add whether the operation is an add.
+     * @param graphNode the graph.
+     * @param triple the triple.
+     */
+    public void append(int stripe, boolean add, Node graphNode, Triple triple) {
+        if (closed) {
+            throw new MarkLogicJenaException("Write-ahead log in " + directory + " is closed");
+        }
+        byte[] record = EncodedQuads.line(graphNode, triple).getBytes(StandardCharsets.UTF_8);
+        Segment segment = current[stripe];
+        if (segment == null || segment.buffer.remaining() < record.length + 5) {
+            if (segment != null) {
+                retire(stripe, segment);
+            }
+            segment = open(stripe, Math.max(SEGMENT_SIZE, HEADER + record.length + 5));
+        }
+        MappedByteBuffer buffer = segment.buffer;
+        int start = buffer.position();
+        buffer.position(start + 4);
+        buffer.put(add ? ADD : DELETE);
+        buffer.put(record);
+        buffer.putInt(start, record.length + 1);
+        segment.unclaimed = true;
+        if (sync) {
+            buffer.force();
+        }
+    }
+
+    private Segment open(int stripe, int size) {
+        Path path = directory.resolve(String.format("%012d-%03d-%09d%s",
+                generation, stripe, sequence[stripe]++, SUFFIX));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            current[stripe] = new Segment(path,
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } catch (IOException e) {
+            throw new MarkLogicJenaException("Cannot create write-ahead log segment " + path, e);
+        }
+        return current[stripe];
+    }
+
+    // a full segment is kept for the next claim if it has unclaimed
+    // records, and otherwise until its claims are released
+    private void retire(int stripe, Segment segment) {
+        current[stripe] = null;
+        if (segment.unclaimed) {
+            full.get(stripe).add(segment);
+        }
+        if (segment.retire()) {
+            segment.discard();
+        }
+    }
+
+    /**
+     * Claims the records appended to a stripe since its last claim, for
+     * the batch that takes the stripe's operations.  The stripe goes on
+     * appending to its current segment.
+     * @param stripe the stripe.
+     * @return the segments that hold the records, to release once the
+     *         batch is written.
+     */
+    public List<Segment> claim(int stripe) {
+        List<Segment> claimed = new ArrayList<>(full.get(stripe));
+        full.get(stripe).clear();
+        Segment segment = current[stripe];
+        if (segment != null && segment.unclaimed) {
+            claimed.add(segment);
+        }
+        for (Segment each : claimed) {
+            each.claim();
+        }
+        return claimed;
+    }
+
+    /**
+     * Releases the claims of a batch that MarkLogic has.  Segments whose
+     * records are all written are unmapped and deleted.  The claims of a
+     * batch that is never written keep its records for the next start.
+     * @param segments the segments claimed for the batch.
+     */
+    public void release(Collection<Segment> segments) {
+        for (Segment segment : segments) {
+            if (segment.release()) {
+                segment.discard();
+            }
+        }
+    }
+
+    /**
+     * Deletes segments of earlier runs, once their operations are
+     * replayed.  A segment that cannot be deleted is replayed on the
+     * next start, which repeats operations but loses none.
+     * @param segments the segments.
+     */
+    public void delete(Collection<Path> segments) {
+        for (Path segment : segments) {
+            try {
+                Files.deleteIfExists(segment);
+            } catch (IOException e) {
+                log.warn("Cannot delete write-ahead log segment " + segment, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.marklogic.semantics.jena.MarkLogicJenaException;
+
+/**
+ * Writes buffered batches on background threads, with a bound on the
+ * number of batches in flight.  When the bound is reached, submitting
+ * another batch blocks until one of the running batches completes.
+ */
+class WritePipeline {
+
+    private static Logger log = LoggerFactory.getLogger(WritePipeline.class);
+    private static AtomicInteger threadNumber = new AtomicInteger();
+
+    private final int maxInFlight;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+    /**
+     * @param maxInFlight the number of batches that may be written
+     *                    concurrently.  Must be at least one.
+     */
+    WritePipeline(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException(
+                    "At least one batch must be allowed in flight");
+        }
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+        this.executor = Executors.newFixedThreadPool(maxInFlight, r -> {
+            Thread thread = new Thread(r,
+                    "marklogic-jena-writer-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a batch for writing, blocking while the maximum number of
+     * batches is already in flight.  Reports the failure of an earlier
+     * batch, if there was one.
+     * @param batch the write to run.
+     */
+    void submit(Runnable batch) {
+        checkFailure();
+        permits.acquireUninterruptibly();
+        try {
+            executor.execute(() -> {
+                try {
+                    batch.run();
+                } catch (RuntimeException e) {
+                    log.error("Pipelined write failed", e);
+                    failure.compareAndSet(null, e);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw new MarkLogicJenaException("Write pipeline is closed", e);
+        }
+    }
+
+    /**
+     * Blocks until every submitted batch has been written.
+     */
+    void await() {
+        permits.acquireUninterruptibly(maxInFlight);
+        permits.release(maxInFlight);
+        checkFailure();
+    }
+
+    /**
+     * Lets batches already submitted finish, and stops the worker threads.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Reports the failure of an earlier batch, if there was one.
+     */
+    void checkFailure() {
+        RuntimeException e = failure.getAndSet(null);
+        if (e != null) {
+            throw new MarkLogicJenaException("Pipelined write failed", e);
+        }
+    }
+}
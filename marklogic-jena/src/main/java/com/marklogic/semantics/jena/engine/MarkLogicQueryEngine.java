@@ -15,17 +15,20 @@
  */
 package com.marklogic.semantics.jena.engine;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
 import java.util.Iterator;
 
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.Triple;
 import org.apache.jena.query.Query;
 import org.apache.jena.query.ResultSet;
-import org.apache.jena.query.ResultSetFactory;
 import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFParser;
 import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.sparql.ARQConstants;
 import org.apache.jena.sparql.algebra.Op;
 import org.apache.jena.sparql.core.BasicPattern;
@@ -37,7 +40,6 @@ import org.apache.jena.sparql.engine.QueryEngineFactory;
 import org.apache.jena.sparql.engine.QueryEngineRegistry;
 import org.apache.jena.sparql.engine.QueryIterator;
 import org.apache.jena.sparql.engine.binding.Binding;
-import org.apache.jena.sparql.engine.binding.BindingBuilder;
 import org.apache.jena.sparql.engine.binding.BindingFactory;
 import org.apache.jena.sparql.engine.iterator.QueryIter1;
 import org.apache.jena.sparql.engine.iterator.QueryIterRoot;
@@ -54,6 +56,7 @@ import com.marklogic.client.query.QueryDefinition;
 import com.marklogic.client.semantics.SPARQLQueryDefinition;
 import com.marklogic.semantics.jena.MarkLogicDatasetGraph;
 import com.marklogic.semantics.jena.MarkLogicJenaException;
+import com.marklogic.semantics.jena.client.GraphResultFormat;
 import com.marklogic.semantics.jena.client.JenaDatabaseClient;
 
 /**
@@ -66,6 +69,9 @@ public class MarkLogicQueryEngine extends QueryEngineMain {
 
 	@SuppressWarnings("unused")
 	private final static Logger log = LoggerFactory.getLogger(MarkLogicQueryEngine.class);
+	private static final Var S = Var.alloc("s");
+	private static final Var P = Var.alloc("p");
+	private static final Var O = Var.alloc("o");
 	private BasicPattern bgp = null;
 	private Template template = null;
 	private MarkLogicDatasetGraph markLogicDatasetGraph;
@@ -102,10 +108,7 @@ public class MarkLogicQueryEngine extends QueryEngineMain {
             Binding initial, Context context) {
         super(query, datasetGraph, initial, context);
         bgp = new BasicPattern();
-        bgp.add(new Triple(
-                Var.alloc("s"),
-                Var.alloc("p"),
-                Var.alloc("o")));
+        bgp.add(new Triple(S, P, O));
         template = new Template(bgp);
         this.markLogicDatasetGraph = (MarkLogicDatasetGraph) datasetGraph;
         this.initial = initial;
@@ -121,6 +124,11 @@ public class MarkLogicQueryEngine extends QueryEngineMain {
     }
 
     private SPARQLQueryDefinition prepareQueryDefinition(Query query) {
+        return prepareQueryDefinition(query, markLogicDatasetGraph, this.initial);
+    }
+
+    private static SPARQLQueryDefinition prepareQueryDefinition(Query query,
+            MarkLogicDatasetGraph markLogicDatasetGraph, Binding initial) {
         JenaDatabaseClient client = markLogicDatasetGraph.getDatabaseClient();
         SPARQLQueryDefinition qdef = client.newQueryDefinition(query.toString());
         if (query.getBaseURI() != null) {
@@ -131,7 +139,7 @@ public class MarkLogicQueryEngine extends QueryEngineMain {
         if (markLogicDatasetGraph.getRulesets() != null) {
             qdef.setRulesets(markLogicDatasetGraph.getRulesets());
         }
-        bindVariables(qdef, this.initial, markLogicDatasetGraph);
+        bindVariables(qdef, initial, markLogicDatasetGraph);
         QueryDefinition constrainingQueryDefinition = markLogicDatasetGraph.getConstrainingQueryDefinition();
 
         qdef.setConstrainingQueryDefinition(constrainingQueryDefinition);
@@ -151,6 +159,74 @@ public class MarkLogicQueryEngine extends QueryEngineMain {
         }
     }
 
+    /**
+     * Runs a CONSTRUCT or DESCRIBE query and streams the triples MarkLogic
+     * returns into a sink as they are parsed.  Unlike
+     * QueryExecution.execConstruct(), no bindings are made and no template
+     * is applied, so memory use does not grow with the size of the result
+     * unless the sink keeps the triples.
+     *
+     * @param markLogicDatasetGraph the dataset graph to query.
+     * @param query a CONSTRUCT or DESCRIBE query.
+     * @param sink receives each triple of the result.
+     */
+    public static void execGraphQuery(MarkLogicDatasetGraph markLogicDatasetGraph,
+            Query query, StreamRDF sink) {
+        InputStream in = sendGraphQuery(markLogicDatasetGraph, query);
+        if (in == null) {
+            return;
+        }
+        try {
+            RDFParser.source(in).lang(lang(markLogicDatasetGraph)).parse(sink);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.debug("Error closing CONSTRUCT response", e);
+            }
+        }
+    }
+
+    /**
+     * Runs a CONSTRUCT or DESCRIBE query and returns the triples MarkLogic
+     * returns, parsed one at a time as the iterator is read.
+     *
+     * @param markLogicDatasetGraph the dataset graph to query.
+     * @param query a CONSTRUCT or DESCRIBE query.
+     * @return the triples of the result.
+     */
+    public static Iterator<Triple> execGraphQueryTriples(
+            MarkLogicDatasetGraph markLogicDatasetGraph, Query query) {
+        InputStream in = sendGraphQuery(markLogicDatasetGraph, query);
+        if (in == null) {
+            return Collections.emptyIterator();
+        }
+        return RDFDataMgr.createIteratorTriples(in, lang(markLogicDatasetGraph), null);
+    }
+
+    private static Lang lang(MarkLogicDatasetGraph markLogicDatasetGraph) {
+        return markLogicDatasetGraph.getDatabaseClient().getGraphResultFormat().getLang();
+    }
+
+    private static InputStream sendGraphQuery(
+            MarkLogicDatasetGraph markLogicDatasetGraph, Query query) {
+        if (!query.isConstructType() && !query.isDescribeType()) {
+            throw new MarkLogicJenaException(
+                    "Only CONSTRUCT and DESCRIBE queries return triples");
+        }
+        markLogicDatasetGraph.syncForQuery(query);
+        JenaDatabaseClient client = markLogicDatasetGraph.getDatabaseClient();
+        SPARQLQueryDefinition qdef = prepareQueryDefinition(query,
+                markLogicDatasetGraph, null);
+        InputStreamHandle handle = client.getGraphResultFormat().newHandle();
+        if (query.isConstructType()) {
+            client.executeConstruct(qdef, handle);
+        } else {
+            client.executeDescribe(qdef, handle);
+        }
+        return handle.get();
+    }
+
     @Override
     /**
      * Evaluation hook for all queries.
@@ -161,11 +237,10 @@ public class MarkLogicQueryEngine extends QueryEngineMain {
       ExecutionContext execCxt = new ExecutionContext(context, null, dsg, null);
       MarkLogicDatasetGraph markLogicDatasetGraph = (MarkLogicDatasetGraph) originalDataset;
       JenaDatabaseClient client = markLogicDatasetGraph.getDatabaseClient();
-      markLogicDatasetGraph.sync();
-      markLogicDatasetGraph.syncAdds();
       QueryIterator qIter = null;
 
       Query query = (Query)context.get(ARQConstants.sysCurrentQuery);
+      markLogicDatasetGraph.syncForQuery(query);
 
       Long limit = null;
       Long offset = null;
@@ -190,22 +265,25 @@ public class MarkLogicQueryEngine extends QueryEngineMain {
       } else if (query.isConstructType() || query.isDescribeType()) {
         // what I need to create here is a QueryIterator that contains
         // bindings of s, p, and o to every triple.
+        GraphResultFormat format = client.getGraphResultFormat();
+        handle = format.newHandle();
         if (query.isConstructType()) client.executeConstruct(qdef, handle);
         if (query.isDescribeType()) client.executeDescribe(qdef, handle);
         Iterator<Triple> triples = null;
         if(handle.get() != null) {
-          triples = RDFDataMgr.createIteratorTriples(handle.get(), Lang.NTRIPLES, null);
+          triples = RDFDataMgr.createIteratorTriples(handle.get(), format.getLang(), null);
         } else {
           log.info("Got null result from CONSTRUCT, constructing alternate iterator");
-          triples = RDFDataMgr.createIteratorTriples(new ByteArrayInputStream(".".getBytes()), Lang.NTRIPLES, null);
+          triples = Collections.emptyIterator();
         }
         QueryIterator qIter1 = QueryIterRoot.create(initial, execCxt) ;
           qIter = new TripleQueryIterator(qIter1, execCxt, triples);
         query.setConstructTemplate(template);
         //throw new MarkLogicJenaException("Construct Type Supported by Engine Layer");
       } else if (query.isSelectType()) {
-        client.executeSelect(qdef, handle, offset, limit);
-        ResultSet results = ResultSetFactory.fromJSON(handle.get());
+        // CSV would turn every term into a plain literal
+        ResultSet results = client.executeSelectStreaming(qdef, offset, limit,
+                client.getSelectResultFormat().preservingTerms());
         qIter = new QueryIteratorResultSet(results);
       } else {
         handle.close();
@@ -306,11 +384,8 @@ public class MarkLogicQueryEngine extends QueryEngineMain {
 			// we need a binding that's ?s ?p ?o
 			try {
 				Triple triple = triples.next();
-				BindingBuilder binding = BindingFactory.builder();
-				binding.add(Var.alloc("s"), triple.getSubject());
-				binding.add(Var.alloc("p"), triple.getPredicate());
-				binding.add(Var.alloc("o"), triple.getObject());
-				return binding.build();
+				return BindingFactory.binding(S, triple.getSubject(),
+						P, triple.getPredicate(), O, triple.getObject());
 			} catch (RiotException e) {
 				// bug in empty results for describe.  this is
 				// a workaround. TODO
@@ -15,7 +15,10 @@
  */
 package com.marklogic.semantics.jena.engine;
 
+import java.util.List;
+
 import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
 import org.apache.jena.sparql.engine.binding.Binding;
 import org.apache.jena.sparql.modify.UpdateEngine;
 import org.apache.jena.sparql.modify.UpdateEngineFactory;
@@ -130,59 +133,82 @@ public class MarkLogicUpdateEngine extends UpdateEngineMain {
             client.executeUpdate(qdef);
         }
 
+        /*
+         * DATA operations name every quad they touch; any other update
+         * may write graphs chosen by its WHERE clause.
+         */
+        private void exec(Update update, List<Quad> quads) {
+            try {
+                exec(update);
+            } finally {
+                // a failed update may still have written some graphs
+                for (Quad quad : quads) {
+                    markLogicDatasetGraph.invalidate(quad.getGraph());
+                }
+            }
+        }
+
+        private void execAny(Update update) {
+            try {
+                exec(update);
+            } finally {
+                markLogicDatasetGraph.invalidateAll();
+            }
+        }
+
         @Override
         public void visit(UpdateDrop update) {
-            exec(update);
+            execAny(update);
         }
 
         @Override
         public void visit(UpdateClear update) {
-            exec(update);
+            execAny(update);
         }
 
         @Override
         public void visit(UpdateCreate update) {
-            exec(update);
+            execAny(update);
         }
 
         @Override
         public void visit(UpdateLoad update) {
-            exec(update);
+            execAny(update);
         }
 
         @Override
         public void visit(UpdateAdd update) {
-            exec(update);
+            execAny(update);
         }
 
         @Override
         public void visit(UpdateCopy update) {
-            exec(update);
+            execAny(update);
         }
 
         @Override
         public void visit(UpdateMove update) {
-            exec(update);
+            execAny(update);
         }
 
         @Override
         public void visit(UpdateDataInsert update) {
-            exec(update);
+            exec(update, update.getQuads());
         }
 
         @Override
         public void visit(UpdateDataDelete update) {
-            exec(update);
+            exec(update, update.getQuads());
         }
 
         @Override
         public void visit(UpdateDeleteWhere update) {
-            exec(update);
+            execAny(update);
         }
 
         @Override
         public void visit(UpdateModify update) {
-            exec(update);
+            execAny(update);
         }
 
     }
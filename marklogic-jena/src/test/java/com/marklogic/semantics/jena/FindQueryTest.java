@@ -0,0 +1,203 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.OpVisitorBase;
+import org.apache.jena.sparql.algebra.OpWalker;
+import org.apache.jena.sparql.algebra.op.OpBGP;
+import org.apache.jena.sparql.algebra.op.OpFilter;
+import org.apache.jena.sparql.algebra.op.OpTable;
+import org.apache.jena.sparql.core.Quad;
+import org.junit.Test;
+
+/**
+ * Checks the plans of the queries that find() and contains() send to
+ * MarkLogic.  Needs no server.
+ */
+public class FindQueryTest {
+
+    private static final Node SUBJECT = NodeFactory
+            .createURI("http://example.org/s");
+    private static final Node OBJECT = NodeFactory.createLiteral("o", "en");
+
+    private static class PlanShape extends OpVisitorBase {
+        int filters = 0;
+        int valuesRows = 0;
+        List<Triple> patterns = new ArrayList<>();
+
+        @Override
+        public void visit(OpTable opTable) {
+            valuesRows += opTable.getTable().size();
+        }
+
+        @Override
+        public void visit(OpFilter opFilter) {
+            filters++;
+        }
+
+        @Override
+        public void visit(OpBGP opBGP) {
+            patterns.addAll(opBGP.getPattern().getList());
+        }
+    }
+
+    private static PlanShape plan(String sparql) {
+        Query query = QueryFactory.create(sparql);
+        Op op = Algebra.compile(query);
+        PlanShape shape = new PlanShape();
+        OpWalker.walk(op, shape);
+        return shape;
+    }
+
+    @Test
+    public void testBoundTermsReplaceFilter() {
+        // the form find() used to send, with ?a bound to the subject
+        PlanShape filtered = plan(
+                "SELECT ?s ?p ?o where { ?s ?p ?o .FILTER (?s = ?a) }");
+        assertEquals(1, filtered.filters);
+        assertTrue(filtered.patterns.get(0).getSubject().isVariable());
+
+        PlanShape bound = plan(MarkLogicDatasetGraph.selectTriplesQuery(
+                SUBJECT, Node.ANY, Node.ANY, false));
+        assertEquals(0, bound.filters);
+        assertEquals(1, bound.patterns.size());
+        assertEquals(SUBJECT, bound.patterns.get(0).getSubject());
+        assertTrue(bound.patterns.get(0).getPredicate().isVariable());
+    }
+
+    @Test
+    public void testSelectsOnlyWildcards() {
+        Query query = QueryFactory.create(MarkLogicDatasetGraph
+                .selectTriplesQuery(SUBJECT, Node.ANY, OBJECT, true));
+        List<String> vars = query.getResultVars();
+        assertEquals(2, vars.size());
+        assertTrue(vars.contains("g"));
+        assertTrue(vars.contains("p"));
+
+        PlanShape shape = plan(query.toString());
+        // only the filter that leaves out MarkLogic's default graph
+        assertEquals(1, shape.filters);
+        assertEquals(OBJECT, shape.patterns.get(0).getObject());
+    }
+
+    @Test
+    public void testNamedGraphsLeaveOutDefaultGraph() {
+        String defaultGraph = "<" + MarkLogicDatasetGraph.DEFAULT_GRAPH_URI + ">";
+        assertTrue(MarkLogicDatasetGraph.selectTriplesQuery(SUBJECT, Node.ANY,
+                Node.ANY, true).contains(defaultGraph));
+        assertFalse(MarkLogicDatasetGraph.selectTriplesQuery(SUBJECT, Node.ANY,
+                Node.ANY, false).contains(defaultGraph));
+        assertEquals(1, plan(MarkLogicDatasetGraph.askQuery(Quad.unionGraph,
+                SUBJECT, Node.ANY, Node.ANY)).filters);
+        assertEquals(1, plan(MarkLogicDatasetGraph.askQuery(Node.ANY,
+                SUBJECT, Node.ANY, Node.ANY)).filters);
+        List<Quad> quads = Arrays.asList(new Quad(Quad.unionGraph, SUBJECT,
+                Node.ANY, OBJECT));
+        assertEquals(1, plan(MarkLogicDatasetGraph.containsQuery(quads,
+                Quad.unionGraph)).filters);
+    }
+
+    @Test
+    public void testPagedFindIsOrdered() {
+        Query unordered = QueryFactory.create(MarkLogicDatasetGraph
+                .selectTriplesQuery(SUBJECT, Node.ANY, Node.ANY, true));
+        assertFalse(unordered.hasOrderBy());
+        Query ordered = QueryFactory.create(MarkLogicDatasetGraph
+                .selectTriplesQuery(SUBJECT, Node.ANY, Node.ANY, true, true));
+        assertTrue(ordered.hasOrderBy());
+        assertEquals(3, ordered.getOrderBy().size());
+    }
+
+    @Test
+    public void testFullyBoundPattern() {
+        Node p = NodeFactory.createURI("http://example.org/p");
+        PlanShape shape = plan(MarkLogicDatasetGraph.selectTriplesQuery(
+                SUBJECT, p, OBJECT, false));
+        assertEquals(0, shape.filters);
+        Triple pattern = shape.patterns.get(0);
+        assertFalse(pattern.getSubject().isVariable());
+        assertFalse(pattern.getPredicate().isVariable());
+        assertFalse(pattern.getObject().isVariable());
+    }
+
+    @Test
+    public void testAskBindsTerms() {
+        Query query = QueryFactory.create(MarkLogicDatasetGraph.askQuery(
+                Quad.defaultGraphIRI, SUBJECT, Node.ANY, OBJECT));
+        assertTrue(query.isAskType());
+        PlanShape shape = plan(query.toString());
+        assertEquals(0, shape.filters);
+        assertEquals(SUBJECT, shape.patterns.get(0).getSubject());
+        assertEquals(OBJECT, shape.patterns.get(0).getObject());
+
+        // any graph asks the default graph and every named graph
+        PlanShape any = plan(MarkLogicDatasetGraph.askQuery(Node.ANY,
+                SUBJECT, Node.ANY, Node.ANY));
+        assertEquals(2, any.patterns.size());
+    }
+
+    @Test
+    public void testContainsQueryNumbersRows() {
+        Node g = NodeFactory.createURI("http://example.org/g");
+        Node p = NodeFactory.createURI("http://example.org/p");
+        List<Quad> quads = Arrays.asList(new Quad(g, SUBJECT, p, OBJECT),
+                new Quad(g, SUBJECT, p, NodeFactory.createBlankNode("b0")));
+        Query query = QueryFactory.create(MarkLogicDatasetGraph
+                .containsQuery(quads, null));
+        assertEquals(Arrays.asList("i"), query.getResultVars());
+        PlanShape shape = plan(query.toString());
+        assertEquals(2, shape.valuesRows);
+        assertEquals(0, shape.filters);
+
+        PlanShape inDefault = plan(MarkLogicDatasetGraph.containsQuery(
+                quads, Quad.defaultGraphIRI));
+        assertEquals(2, inDefault.valuesRows);
+        assertEquals(1, inDefault.patterns.size());
+    }
+
+    @Test
+    public void testFindAllLeavesWildcardsUndefined() {
+        Node g = NodeFactory.createURI("http://example.org/g");
+        Node p = NodeFactory.createURI("http://example.org/p");
+        List<Quad> patterns = Arrays.asList(
+                new Quad(g, SUBJECT, p, Node.ANY),
+                new Quad(Quad.unionGraph, Node.ANY, p, OBJECT));
+        String sparql = MarkLogicDatasetGraph.findAllQuery(patterns, false);
+        assertTrue(sparql.contains("UNDEF"));
+        Query query = QueryFactory.create(sparql);
+        assertEquals(Arrays.asList("i", "g", "s", "p", "o"), query.getResultVars());
+        PlanShape shape = plan(sparql);
+        assertEquals(2, shape.valuesRows);
+        // only the filter that leaves out MarkLogic's default graph
+        assertEquals(1, shape.filters);
+        assertTrue(shape.patterns.get(0).getSubject().isVariable());
+    }
+}
@@ -23,7 +23,16 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.jena.datatypes.RDFDatatype;
 import org.apache.jena.graph.Graph;
@@ -33,12 +42,14 @@ import org.apache.jena.graph.Triple;
 import org.apache.jena.query.*;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.RDFDataMgr;
 import org.apache.jena.riot.RDFFormat;
 import org.apache.jena.sparql.core.DatasetGraph;
 import org.apache.jena.sparql.core.Quad;
 import org.apache.jena.sparql.graph.GraphFactory;
 import org.apache.jena.update.UpdateAction;
+import org.apache.jena.util.iterator.ExtendedIterator;
 import org.apache.jena.update.UpdateRequest;
 import org.junit.After;
 import org.junit.Test;
@@ -47,6 +58,12 @@ import org.slf4j.LoggerFactory;
 
 import com.marklogic.client.semantics.Capability;
 import com.marklogic.client.semantics.GraphPermissions;
+import com.marklogic.semantics.jena.client.Endpoint;
+import com.marklogic.semantics.jena.client.FindCache;
+import com.marklogic.semantics.jena.client.HostSelectionPolicy;
+import com.marklogic.semantics.jena.client.JenaDatabaseClient;
+import com.marklogic.semantics.jena.client.MutationBuffer;
+import com.marklogic.semantics.jena.client.PagedQuadsIterator;
 
 public class MarkLogicDatasetGraphTest extends JenaTestBase {
 
@@ -227,8 +244,9 @@ public class MarkLogicDatasetGraphTest extends JenaTestBase {
             if (q.getGraph() != null) {
                 String gName = q.getGraph().getURI();
                 if (gName != null) {
-                    if (gName
-                            .equals("http://marklogic.com/semantics#default-graph")
+                    // default graph triples come back once, in Jena's
+                    // default graph rather than MarkLogic's
+                    if (q.isDefaultGraph()
                             || gName.matches("^http:\\/\\/example.org\\/[go].*")) {
                         i++;
                         assertNotNull(q.getSubject());
@@ -416,6 +434,397 @@ public class MarkLogicDatasetGraphTest extends JenaTestBase {
         }
     }
 
+    @Test
+    public void testGraphMergeFlush() {
+        MarkLogicDatasetGraph markLogicDatasetGraph = getMarkLogicDatasetGraph();
+        markLogicDatasetGraph.getDatabaseClient().setWriteFlushMode(
+                MutationBuffer.FlushMode.GRAPH_MERGE);
+        assertLoadMatchesJena(markLogicDatasetGraph, "testdata/testData.trig");
+    }
+
+    @Test
+    public void testPipelinedWrites() {
+        MarkLogicDatasetGraph markLogicDatasetGraph = getMarkLogicDatasetGraph();
+        markLogicDatasetGraph.getDatabaseClient().setPipelinedWrites(4);
+        assertLoadMatchesJena(markLogicDatasetGraph, "testdata/testData.trig");
+        markLogicDatasetGraph.getDatabaseClient().setPipelinedWrites(0);
+    }
+
+    @Test
+    public void testBufferOptions() {
+        MarkLogicDatasetGraphOptions options = new MarkLogicDatasetGraphOptions();
+        options.getAddBuffer().withMaxTriples(2).withMaxBytes(200)
+                .withFlushIntervalMillis(100).withInitialDelayMillis(0);
+        MarkLogicDatasetGraph markLogicDatasetGraph = MarkLogicDatasetGraphFactory
+                .createDatasetGraph(writerClient, options);
+        assertEquals(100L, markLogicDatasetGraph.getDatabaseClient()
+                .getTimerCacheInterval());
+        assertLoadMatchesJena(markLogicDatasetGraph, "testdata/testData.trig");
+        markLogicDatasetGraph.close();
+    }
+
+    @Test
+    public void testPagedFind() throws InterruptedException {
+        MarkLogicDatasetGraph dsg = getMarkLogicDatasetGraph("testdata/test.owl");
+        int unpaged = 0;
+        Iterator<Quad> quads = dsg.find();
+        while (quads.hasNext()) {
+            quads.next();
+            unpaged++;
+        }
+
+        dsg.setFindPageSize(7);
+        int paged = 0;
+        quads = dsg.find();
+        while (quads.hasNext()) {
+            quads.next();
+            paged++;
+        }
+        assertEquals("Paged find returns every quad", unpaged, paged);
+
+        quads = dsg.find(Quad.defaultGraphIRI, Node.ANY, Node.ANY, Node.ANY);
+        assertTrue(quads instanceof PagedQuadsIterator);
+        PagedQuadsIterator pages = (PagedQuadsIterator) quads;
+        assertTrue(pages.hasNext());
+        pages.next();
+        pages.close();
+        int requested = pages.getPagesRequested();
+        assertFalse("Closed iterator has no more quads", pages.hasNext());
+        assertFalse("Prefetch was cancelled", pages.isPrefetching());
+        Thread.sleep(200);
+        assertEquals("No page requested after close", requested,
+                pages.getPagesRequested());
+        dsg.setFindPageSize(0);
+    }
+
+    @Test
+    public void testAbandonedFind() {
+        MarkLogicDatasetGraph dsg = getMarkLogicDatasetGraph("testdata/test.owl");
+        // more abandoned finds than the client has pooled connections
+        for (int i = 0; i < 100; i++) {
+            ExtendedIterator<Triple> triples = dsg.getDefaultGraph().find();
+            assertTrue(triples.hasNext());
+            triples.next();
+            triples.close();
+        }
+        assertTrue("Connections were released", dsg.getDefaultGraph().find().hasNext());
+    }
+
+    @Test
+    public void testBulkLoad() {
+        MarkLogicDatasetGraph markLogicDatasetGraph = getMarkLogicDatasetGraph();
+        InputStream in = getClass().getClassLoader().getResourceAsStream(
+                "testdata/testData.trig");
+        long loaded = markLogicDatasetGraph.bulkLoad(in, Lang.TRIG,
+                new BulkLoadOptions().withThreads(3).withBatchSize(2));
+        assertTrue("Bulk load sent triples", loaded > 0);
+        assertMatchesJena(markLogicDatasetGraph, "testdata/testData.trig");
+    }
+
+    @Test
+    public void testFindCache() {
+        MarkLogicDatasetGraph dsg = MarkLogicDatasetGraphFactory
+                .createDatasetGraph(writerClient,
+                        new MarkLogicDatasetGraphOptions().withFindCacheSize(10));
+        FindCache cache = dsg.getFindCache();
+        Node g = NodeFactory.createURI("http://example.org/cached-graph");
+        Node s = NodeFactory.createURI("http://example.org/s");
+        Node p = NodeFactory.createURI("http://example.org/p");
+        dsg.add(g, s, p, NodeFactory.createLiteral("one"));
+
+        assertTrue(dsg.find(g, s, p, Node.ANY).hasNext());
+        assertTrue(dsg.find(g, s, p, Node.ANY).hasNext());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+
+        dsg.add(g, s, p, NodeFactory.createLiteral("two"));
+        Iterator<Quad> quads = dsg.find(g, s, p, Node.ANY);
+        int count = 0;
+        while (quads.hasNext()) {
+            quads.next();
+            count++;
+        }
+        assertEquals("Write to graph invalidates cached find", 2, count);
+        assertEquals(2, cache.getMissCount());
+
+        dsg.removeGraph(g);
+        assertFalse(dsg.find(g, s, p, Node.ANY).hasNext());
+        assertEquals(3, cache.getMissCount());
+        dsg.close();
+    }
+
+    @Test
+    public void testContains() {
+        MarkLogicDatasetGraph dsg = getMarkLogicDatasetGraph();
+        Node g = NodeFactory.createURI("http://example.org/contains-graph");
+        Node s = NodeFactory.createURI("http://example.org/s");
+        Node p = NodeFactory.createURI("http://example.org/p");
+        Node one = NodeFactory.createLiteral("one");
+        Node two = NodeFactory.createLiteral("two");
+        dsg.add(g, s, p, one);
+
+        assertTrue(dsg.contains(g, s, p, one));
+        assertTrue(dsg.contains(g, s, Node.ANY, Node.ANY));
+        assertTrue(dsg.contains(Node.ANY, s, p, one));
+        assertTrue(dsg.contains(Quad.unionGraph, s, p, one));
+        assertFalse(dsg.contains(g, s, p, two));
+        assertFalse(dsg.contains(Quad.defaultGraphIRI, s, p, one));
+        assertTrue(dsg.getGraph(g).contains(s, p, one));
+
+        Quad present = new Quad(g, s, p, one);
+        Quad absent = new Quad(g, s, p, two);
+        Quad inUnion = new Quad(Quad.unionGraph, s, p, one);
+        Set<Quad> found = dsg.containedQuads(Arrays.asList(present, absent, inUnion));
+        assertEquals(2, found.size());
+        assertTrue(found.contains(present));
+        assertTrue(found.contains(inUnion));
+
+        dsg.removeGraph(g);
+        assertFalse(dsg.contains(g, s, p, one));
+    }
+
+    @Test
+    public void testFindAll() {
+        MarkLogicDatasetGraph dsg = getMarkLogicDatasetGraph();
+        Node g = NodeFactory.createURI("http://example.org/find-all-graph");
+        Node p = NodeFactory.createURI("http://example.org/p");
+        Node s1 = NodeFactory.createURI("http://example.org/s1");
+        Node s2 = NodeFactory.createURI("http://example.org/s2");
+        Node s3 = NodeFactory.createURI("http://example.org/s3");
+        dsg.add(g, s1, p, NodeFactory.createLiteral("one"));
+        dsg.add(g, s1, p, NodeFactory.createLiteral("uno"));
+        dsg.add(g, s2, p, NodeFactory.createLiteral("two"));
+
+        Quad first = new Quad(g, s1, p, Node.ANY);
+        Quad second = new Quad(Quad.unionGraph, s2, Node.ANY, Node.ANY);
+        Quad third = new Quad(g, s3, p, Node.ANY);
+        Map<Quad, List<Quad>> matches = dsg.findAll(Arrays.asList(first, second, third));
+        assertEquals(3, matches.size());
+        assertEquals(2, matches.get(first).size());
+        assertEquals(1, matches.get(second).size());
+        assertEquals(g, matches.get(second).get(0).getGraph());
+        assertEquals(NodeFactory.createLiteral("two"),
+                matches.get(second).get(0).getObject());
+        assertTrue(matches.get(third).isEmpty());
+
+        dsg.removeGraph(g);
+    }
+
+    @Test
+    public void testFindAllInDefaultGraph() {
+        MarkLogicDatasetGraph dsg = getMarkLogicDatasetGraph();
+        Node s = NodeFactory.createURI("http://example.org/find-all-default");
+        Node p = NodeFactory.createURI("http://example.org/p");
+        Node o = NodeFactory.createLiteral("only in the default graph");
+        dsg.add(Quad.defaultGraphIRI, s, p, o);
+
+        Quad anyGraph = new Quad(Node.ANY, s, p, Node.ANY);
+        Quad inUnion = new Quad(Quad.unionGraph, s, p, Node.ANY);
+        Map<Quad, List<Quad>> matches = dsg.findAll(Arrays.asList(anyGraph, inUnion));
+        assertEquals("Found once, not again as MarkLogic's default graph",
+                1, matches.get(anyGraph).size());
+        assertTrue(matches.get(anyGraph).get(0).isDefaultGraph());
+        assertTrue(matches.get(inUnion).isEmpty());
+
+        dsg.delete(Quad.defaultGraphIRI, s, p, o);
+    }
+
+    @Test
+    public void testConsistencyModes() {
+        MarkLogicDatasetGraphOptions options = new MarkLogicDatasetGraphOptions()
+                .withConsistencyMode(ConsistencyMode.GRAPH_SCOPED);
+        options.getAddBuffer().withMaxTriples(1000).withFlushIntervalMillis(60000);
+        MarkLogicDatasetGraph dsg = MarkLogicDatasetGraphFactory
+                .createDatasetGraph(writerClient, options);
+        JenaDatabaseClient client = dsg.getDatabaseClient();
+        Node g1 = NodeFactory.createURI("http://example.org/scoped-1");
+        Node g2 = NodeFactory.createURI("http://example.org/scoped-2");
+        Node s = NodeFactory.createURI("http://example.org/s");
+        Node p = NodeFactory.createURI("http://example.org/p");
+        Node o = NodeFactory.createLiteral("o");
+        dsg.add(g1, s, p, o);
+        dsg.add(g2, s, p, o);
+        assertTrue(client.isDirty(g1));
+
+        assertTrue("Read of a graph sees its writes", dsg.contains(g1, s, p, o));
+        assertFalse(client.isDirty(g1));
+        assertTrue("Read of one graph leaves others buffered", client.isDirty(g2));
+
+        dsg.setConsistencyMode(ConsistencyMode.EVENTUAL);
+        dsg.find(g2, s, p, Node.ANY);
+        assertTrue(client.isDirty(g2));
+
+        dsg.setConsistencyMode(ConsistencyMode.STRICT);
+        assertTrue(dsg.contains(g2, s, p, o));
+        assertFalse(client.isDirty(g2));
+
+        dsg.removeGraph(g1);
+        dsg.removeGraph(g2);
+        dsg.close();
+    }
+
+    @Test
+    public void testMutationLog() {
+        MarkLogicDatasetGraphOptions options = new MarkLogicDatasetGraphOptions();
+        options.getAddBuffer().withMaxTriples(1000).withFlushIntervalMillis(60000);
+        MarkLogicDatasetGraph dsg = MarkLogicDatasetGraphFactory
+                .createDatasetGraph(writerClient, options);
+        JenaDatabaseClient client = dsg.getDatabaseClient();
+        Node g = NodeFactory.createURI("http://example.org/mutation-graph");
+        Node s = NodeFactory.createURI("http://example.org/s");
+        Node p = NodeFactory.createURI("http://example.org/p");
+        Node oldValue = NodeFactory.createLiteral("old");
+        Node newValue = NodeFactory.createLiteral("new");
+        Node gone = NodeFactory.createLiteral("gone");
+        dsg.add(g, s, p, oldValue);
+        dsg.sync();
+
+        // update a value, and add then delete another, all in the buffer
+        dsg.delete(g, s, p, oldValue);
+        dsg.add(g, s, p, newValue);
+        dsg.add(g, s, p, gone);
+        dsg.delete(g, s, p, gone);
+        assertTrue("Deletes do not flush buffered adds", client.isDirty(g));
+
+        assertFalse(dsg.contains(g, s, p, oldValue));
+        assertTrue(dsg.contains(g, s, p, newValue));
+        assertFalse(dsg.contains(g, s, p, gone));
+
+        // delete then add of the same quad leaves it in place
+        dsg.delete(g, s, p, newValue);
+        dsg.add(g, s, p, newValue);
+        assertTrue(dsg.contains(g, s, p, newValue));
+
+        dsg.removeGraph(g);
+        dsg.close();
+    }
+
+    @Test
+    public void testSize() {
+        MarkLogicDatasetGraph dsg = MarkLogicDatasetGraphFactory
+                .createDatasetGraph(writerClient,
+                        new MarkLogicDatasetGraphOptions().withSizeCacheMillis(60000));
+        Node g = NodeFactory.createURI("http://example.org/counted-graph");
+        Node s = NodeFactory.createURI("http://example.org/s");
+        Node p = NodeFactory.createURI("http://example.org/p");
+        long graphs = dsg.size();
+        dsg.add(g, s, p, NodeFactory.createLiteral("one"));
+        dsg.add(g, s, p, NodeFactory.createLiteral("two"));
+
+        assertEquals(2, dsg.getGraph(g).size());
+        assertEquals(2, dsg.graphSize(g));
+        assertEquals("Write to graph invalidates cached count",
+                graphs + 1, dsg.size());
+
+        dsg.delete(g, s, p, NodeFactory.createLiteral("two"));
+        assertEquals(1, dsg.getGraph(g).size());
+
+        dsg.removeGraph(g);
+        assertEquals(0, dsg.getGraph(g).size());
+        assertEquals(graphs, dsg.size());
+        dsg.close();
+    }
+
+    @Test
+    public void testDatasetGraphPool() throws Exception {
+        MarkLogicDatasetGraphPool pool = MarkLogicDatasetGraphFactory
+                .createDatasetGraphPool(writerClient, 3,
+                        new MarkLogicDatasetGraphOptions());
+        Node p = NodeFactory.createURI("http://example.org/p");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < 8; i++) {
+            Node g = NodeFactory.createURI("http://example.org/pooled" + i);
+            Node s = NodeFactory.createURI("http://example.org/s" + i);
+            results.add(executor.submit(() -> pool.execute(dsg -> {
+                dsg.add(g, s, p, s);
+                dsg.sync();
+                boolean found = dsg.contains(g, s, p, s);
+                dsg.removeGraph(g);
+                return found;
+            })));
+        }
+        for (Future<Boolean> result : results) {
+            assertTrue("Pooled dataset graph sees its own write", result.get());
+        }
+        executor.shutdown();
+        assertEquals(3, pool.getAvailable());
+
+        MarkLogicDatasetGraph dsg = pool.acquire();
+        assertEquals(2, pool.getAvailable());
+        dsg.begin(ReadWrite.WRITE);
+        pool.release(dsg);
+        assertFalse("Release rolls back open transaction", dsg.isInTransaction());
+        try {
+            pool.release(dsg);
+            fail("A dataset graph is released once");
+        } catch (MarkLogicJenaException e) {
+            assertEquals(3, pool.getAvailable());
+        }
+        pool.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDatasetGraphPoolRejectsCaches() {
+        MarkLogicDatasetGraphFactory.createDatasetGraphPool(writerClient, 2,
+                new MarkLogicDatasetGraphOptions().withFindCacheSize(100));
+    }
+
+    @Test
+    public void testMultipleHosts() {
+        // two clients for the one test host stand in for two E-nodes
+        MarkLogicDatasetGraph dsg = MarkLogicDatasetGraphFactory
+                .createDatasetGraph(Arrays.asList(writerClient, writerClient),
+                        new MarkLogicDatasetGraphOptions().withHostSelectionPolicy(
+                                HostSelectionPolicy.roundRobin()));
+        assertEquals(2, dsg.getDatabaseClient().getEndpoints().size());
+        Node g = NodeFactory.createURI("http://example.org/multihost");
+        Node s = NodeFactory.createURI("http://example.org/s");
+        Node p = NodeFactory.createURI("http://example.org/p");
+
+        dsg.begin(ReadWrite.WRITE);
+        dsg.add(g, s, p, s);
+        assertTrue("Read in transaction uses the transaction's host",
+                dsg.contains(g, s, p, s));
+        dsg.commit();
+        assertTrue(dsg.contains(g, s, p, s));
+
+        for (int i = 0; i < 10; i++) {
+            dsg.getGraph(g).find().toList();
+        }
+        for (Endpoint endpoint : dsg.getDatabaseClient().getEndpoints()) {
+            assertEquals(0, endpoint.getOutstandingRequests());
+            assertTrue("Both hosts served requests",
+                    endpoint.getAverageLatencyMillis() > 0);
+        }
+        dsg.removeGraph(g);
+        dsg.close();
+    }
+
+    private void assertLoadMatchesJena(MarkLogicDatasetGraph markLogicDatasetGraph,
+            String fileName) {
+        RDFDataMgr.read(markLogicDatasetGraph, fileName);
+        markLogicDatasetGraph.sync();
+        assertMatchesJena(markLogicDatasetGraph, fileName);
+    }
+
+    private void assertMatchesJena(MarkLogicDatasetGraph markLogicDatasetGraph,
+            String fileName) {
+        DatasetGraph datasetGraph = getJenaDatasetGraph(fileName);
+
+        Iterator<Node> jenaGraphs = datasetGraph.listGraphNodes();
+        while (jenaGraphs.hasNext()) {
+            Node jenaGraphNode = jenaGraphs.next();
+            Graph jenaGraph = datasetGraph.getGraph(jenaGraphNode);
+            Graph markLogicGraph = markLogicDatasetGraph
+                    .getGraph(jenaGraphNode);
+            assertTrue(
+                    "Graphs from jena and MarkLogic are not isomorphic.  Graph name: "
+                            + jenaGraphNode.getURI(),
+                    jenaGraph.isIsomorphicWith(markLogicGraph));
+        }
+    }
+
     @Test(expected = MarkLogicJenaException.class)
     public void testLifeCycle() {
         MarkLogicDatasetGraph dsg = getMarkLogicDatasetGraph("testdata/testData.trig");
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.util.iterator.ClosableIterator;
+import org.apache.jena.util.iterator.WrappedIterator;
+import org.junit.Test;
+
+/**
+ * Checks which FindCache entries an invalidation drops.  Needs no server.
+ */
+public class FindCacheTest {
+
+    private static final String G1 = "http://example.org/g1";
+    private static final String G2 = "http://example.org/g2";
+    private static final Node S = NodeFactory.createURI("http://example.org/s");
+
+    private static List<Quad> none() {
+        return new ArrayList<>(Collections.<Quad>emptyList());
+    }
+
+    private static void put(FindCache cache, String graphName) {
+        cache.put(graphName, S, Node.ANY, Node.ANY, none(), cache.stamp(graphName));
+    }
+
+    private static List<Quad> quads(int count) {
+        List<Quad> quads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            quads.add(Quad.create(NodeFactory.createURI(G1), S, S,
+                    NodeFactory.createLiteral("o" + i)));
+        }
+        return quads;
+    }
+
+    private static ClosableIterator<Quad> record(FindCache cache, List<Quad> quads) {
+        return cache.record(G1, S, Node.ANY, Node.ANY,
+                WrappedIterator.create(quads.iterator()), cache.stamp(G1));
+    }
+
+    private static List<Quad> get(FindCache cache, String graphName) {
+        return cache.get(graphName, S, Node.ANY, Node.ANY);
+    }
+
+    @Test
+    public void testInvalidateDropsGraphAndUnion() {
+        FindCache cache = new FindCache(10);
+        put(cache, G1);
+        put(cache, G2);
+        put(cache, null);
+        cache.invalidate(G1);
+        assertNull(get(cache, G1));
+        assertNotNull(get(cache, G2));
+        assertNull(get(cache, null));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testFindStartedBeforeWriteIsNotCached() {
+        FindCache cache = new FindCache(10);
+        FindCache.Stamp stamp = cache.stamp(G1);
+        cache.invalidate(G1);
+        cache.put(G1, S, Node.ANY, Node.ANY, none(), stamp);
+        assertNull(get(cache, G1));
+
+        stamp = cache.stamp(G2);
+        cache.invalidateAll();
+        cache.put(G2, S, Node.ANY, Node.ANY, none(), stamp);
+        assertNull(get(cache, G2));
+        put(cache, G2);
+        assertNotNull(get(cache, G2));
+    }
+
+    @Test
+    public void testRecordCachesResultReadToTheEnd() {
+        FindCache cache = new FindCache(10, 3);
+        List<Quad> read = new ArrayList<>();
+        ClosableIterator<Quad> quads = record(cache, quads(3));
+        assertNull(get(cache, G1));
+        quads.forEachRemaining(read::add);
+        assertEquals(quads(3), read);
+        assertEquals(quads(3), get(cache, G1));
+
+        // a result left unfinished is not cached
+        cache.invalidate(G1);
+        quads = record(cache, quads(3));
+        quads.next();
+        quads.close();
+        assertNull(get(cache, G1));
+    }
+
+    @Test
+    public void testRecordSkipsLargeResult() {
+        FindCache cache = new FindCache(10, 3);
+        ClosableIterator<Quad> quads = record(cache, quads(4));
+        int count = 0;
+        while (quads.hasNext()) {
+            quads.next();
+            count++;
+        }
+        assertEquals(4, count);
+        assertFalse(quads.hasNext());
+        assertNull(get(cache, G1));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.junit.Test;
+
+/**
+ * Checks that NodeCache shares terms and stays within its capacity.
+ * Needs no server.
+ */
+public class NodeCacheTest {
+
+    @Test
+    public void testSharesIris() {
+        NodeCache nodes = new NodeCache(16);
+        Node first = nodes.uri("http://example.org/p");
+        assertSame(first, nodes.uri("http://example.org/p"));
+        assertSame(first, nodes.intern(NodeFactory.createURI("http://example.org/p")));
+        assertEquals(2, nodes.getHitCount());
+        assertEquals(1, nodes.getMissCount());
+    }
+
+    @Test
+    public void testSharesLiterals() {
+        NodeCache nodes = new NodeCache(16);
+        Node first = nodes.intern(NodeFactory.createLiteral("o", "en"));
+        assertSame(first, nodes.intern(NodeFactory.createLiteral("o", "en")));
+        Node other = NodeFactory.createLiteral("o", "fr");
+        assertSame(other, nodes.intern(other));
+    }
+
+    @Test
+    public void testLeavesBlankNodes() {
+        NodeCache nodes = new NodeCache(16);
+        Node blank = NodeFactory.createBlankNode("b0");
+        assertSame(blank, nodes.intern(blank));
+        assertNotSame(blank, nodes.intern(NodeFactory.createBlankNode("b0")));
+        assertEquals(0, nodes.getHitCount() + nodes.getMissCount());
+    }
+
+    @Test
+    public void testBounded() {
+        NodeCache nodes = new NodeCache(100);
+        assertEquals(128, nodes.getCapacity());
+        for (int i = 0; i < 10000; i++) {
+            nodes.uri("http://example.org/r" + i);
+        }
+        assertEquals(128, nodes.getCapacity());
+        assertEquals(10000, nodes.getMissCount());
+    }
+}
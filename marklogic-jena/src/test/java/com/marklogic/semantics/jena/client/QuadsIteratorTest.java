@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.jena.riot.resultset.ResultSetLang;
+import org.junit.Test;
+
+/**
+ * Checks that QuadsIterator releases the response it reads from, whether
+ * it is read to the end or abandoned.  Needs no server.
+ */
+public class QuadsIteratorTest {
+
+    private static final String JSON = "{ \"head\": { \"vars\": [ \"s\", \"p\", \"o\" ] },"
+            + " \"results\": { \"bindings\": ["
+            + "{ \"s\": { \"type\": \"uri\", \"value\": \"http://example.org/s1\" },"
+            + "  \"p\": { \"type\": \"uri\", \"value\": \"http://example.org/p\" },"
+            + "  \"o\": { \"type\": \"literal\", \"value\": \"one\" } },"
+            + "{ \"s\": { \"type\": \"uri\", \"value\": \"http://example.org/s2\" },"
+            + "  \"p\": { \"type\": \"uri\", \"value\": \"http://example.org/p\" },"
+            + "  \"o\": { \"type\": \"literal\", \"value\": \"two\" } }"
+            + "] } }";
+
+    private static final String XML = "<?xml version=\"1.0\"?>"
+            + "<sparql xmlns=\"http://www.w3.org/2005/sparql-results#\">"
+            + "<head><variable name=\"s\"/><variable name=\"p\"/><variable name=\"o\"/></head>"
+            + "<results>"
+            + "<result><binding name=\"s\"><uri>http://example.org/s1</uri></binding>"
+            + "<binding name=\"p\"><uri>http://example.org/p</uri></binding>"
+            + "<binding name=\"o\"><literal>one</literal></binding></result>"
+            + "<result><binding name=\"s\"><uri>http://example.org/s2</uri></binding>"
+            + "<binding name=\"p\"><uri>http://example.org/p</uri></binding>"
+            + "<binding name=\"o\"><literal>two</literal></binding></result>"
+            + "</results></sparql>";
+
+    /**
+     * A response body that notes when it is closed.
+     */
+    static class Body extends ByteArrayInputStream {
+
+        boolean closed = false;
+
+        Body(String content) {
+            super(content.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static void assertReleases(ResultDecoder decoder, String content) {
+        Body body = new Body(content);
+        QuadsIterator quads = new QuadsIterator("http://example.org/g", decoder.decode(body));
+        assertTrue(quads.hasNext());
+        quads.next();
+        quads.close();
+        assertTrue("abandoned find closes the body", body.closed);
+        assertFalse(quads.hasNext());
+
+        body = new Body(content);
+        quads = new QuadsIterator("http://example.org/g", decoder.decode(body));
+        int count = 0;
+        while (quads.hasNext()) {
+            quads.next();
+            count++;
+        }
+        assertEquals(2, count);
+        assertTrue("exhausted find closes the body", body.closed);
+    }
+
+    @Test
+    public void testStreamingJsonReleasesResponse() {
+        assertReleases(new SparqlJsonDecoder(), JSON);
+    }
+
+    @Test
+    public void testJenaJsonReleasesResponse() {
+        assertReleases(new JenaResultDecoder(ResultSetLang.RS_JSON), JSON);
+    }
+
+    @Test
+    public void testJenaXmlReleasesResponse() {
+        assertReleases(new JenaResultDecoder(ResultSetLang.RS_XML), XML);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.riot.ResultSetMgr;
+import org.apache.jena.riot.resultset.ResultSetLang;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.junit.Test;
+
+/**
+ * Checks SparqlJsonDecoder against Jena's own SPARQL JSON reader.
+ * Needs no server.
+ */
+public class SparqlJsonDecoderTest {
+
+    private static final String ROWS = "\"results\": { \"bindings\": ["
+            + "{ \"s\": { \"type\": \"uri\", \"value\": \"http://example.org/r1\" },"
+            + "  \"o\": { \"type\": \"literal\", \"value\": \"café \\\"quoted\\\" \\u00e9\\n\", \"xml:lang\": \"fr\" } },"
+            + "{ \"s\": { \"type\": \"uri\", \"value\": \"http://example.org/r1\" },"
+            + "  \"o\": { \"type\": \"literal\", \"value\": \"42\", \"datatype\": \"http://www.w3.org/2001/XMLSchema#int\" } },"
+            + "{ \"s\": { \"type\": \"bnode\", \"value\": \"b0\" },"
+            + "  \"o\": { \"type\": \"literal\", \"value\": \"\\ud83d\\ude00 😀\" } },"
+            + "{ \"o\": { \"type\": \"uri\", \"value\": \"http://example.org/r2\" } }"
+            + "] }";
+
+    private static final String HEAD = "\"head\": { \"vars\": [ \"s\", \"o\" ], \"link\": [] }";
+
+    private static List<Binding> rows(ResultSet results) {
+        List<Binding> rows = new ArrayList<>();
+        while (results.hasNext()) {
+            rows.add(results.nextBinding());
+        }
+        return rows;
+    }
+
+    private static ResultSet decode(String json) {
+        return new SparqlJsonDecoder().decode(new ByteArrayInputStream(
+                json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void assertMatchesJena(String json) {
+        ResultSet expected = ResultSetMgr.read(new ByteArrayInputStream(
+                json.getBytes(StandardCharsets.UTF_8)), ResultSetLang.RS_JSON);
+        ResultSet actual = decode(json);
+        assertEquals(expected.getResultVars(), actual.getResultVars());
+        List<Binding> expectedRows = rows(expected);
+        List<Binding> actualRows = rows(actual);
+        assertEquals(expectedRows.size(), actualRows.size());
+        for (int i = 0; i < expectedRows.size(); i++) {
+            Binding e = expectedRows.get(i);
+            Binding a = actualRows.get(i);
+            for (String name : Arrays.asList("s", "o")) {
+                Var v = Var.alloc(name);
+                assertEquals("row " + i + " ?" + name, e.contains(v), a.contains(v));
+                if (e.contains(v) && !e.get(v).isBlank()) {
+                    assertEquals("row " + i + " ?" + name, e.get(v), a.get(v));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testHeadFirst() {
+        assertMatchesJena("{ " + HEAD + ", " + ROWS + " }");
+    }
+
+    @Test
+    public void testResultsFirst() {
+        assertMatchesJena("{ " + ROWS + ", " + HEAD + " }");
+    }
+
+    @Test
+    public void testNoRows() {
+        ResultSet results = decode("{ " + HEAD + ", \"results\": { \"bindings\": [] } }");
+        assertEquals(Arrays.asList("s", "o"), results.getResultVars());
+        assertFalse(results.hasNext());
+    }
+
+    @Test
+    public void testInternsIris() {
+        List<Binding> rows = rows(decode("{ " + HEAD + ", " + ROWS + " }"));
+        Var s = Var.alloc("s");
+        assertTrue(rows.get(0).get(s).isURI());
+        assertSame(rows.get(0).get(s), rows.get(1).get(s));
+    }
+}
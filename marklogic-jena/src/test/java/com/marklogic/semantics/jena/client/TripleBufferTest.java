@@ -0,0 +1,597 @@
+/*
+ * Copyright 2016-2019 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.jena.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Stream;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.marklogic.semantics.jena.MarkLogicDatasetGraphOptions;
+import com.marklogic.semantics.jena.MarkLogicJenaException;
+import com.marklogic.semantics.jena.MarkLogicDatasetGraphOptions.BufferOptions;
+
+/**
+ * Checks that TripleBuffer keeps every quad, in order, when several
+ * threads add to it at once.  Needs no server.
+ */
+public class TripleBufferTest {
+
+    /**
+     * A buffer that keeps the quads of each batch it writes.
+     */
+    static class RecordingBuffer extends TripleBuffer {
+
+        final Set<Quad> adds = new HashSet<>();
+        final Set<Quad> deletes = new HashSet<>();
+        int failures;
+
+        RecordingBuffer(long batchSize) {
+            super(null);
+            this.cacheSize = batchSize;
+        }
+
+        // not the buffer's monitor, which a flush holds while it waits
+        // for pipelined writes
+        @Override
+        protected void write(Mutations batch) {
+            synchronized (adds) {
+                record(batch);
+            }
+        }
+
+        private void record(Mutations batch) {
+            if (failures > 0) {
+                failures--;
+                throw new RuntimeException("write failed");
+            }
+            EncodedQuads encoded = batch.getEncoded();
+            if (encoded != null) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try {
+                    encoded.write(out);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                DatasetGraph quads = DatasetGraphFactory.create();
+                RDFDataMgr.read(quads, new ByteArrayInputStream(out.toByteArray()), Lang.NQUADS);
+                quads.find().forEachRemaining(quad -> {
+                    deletes.remove(quad);
+                    adds.add(quad);
+                });
+            }
+            record(batch.getAdds(), adds, deletes);
+            record(batch.getDeletes(), deletes, adds);
+        }
+
+        private static void record(TriplesHashMap triples, Set<Quad> into, Set<Quad> from) {
+            for (Map.Entry<Node, Graph> entry : triples.entrySet()) {
+                Iterator<Triple> it = entry.getValue().find();
+                while (it.hasNext()) {
+                    Quad quad = Quad.create(entry.getKey(), it.next());
+                    from.remove(quad);
+                    into.add(quad);
+                }
+            }
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final Node G = NodeFactory.createURI("http://example.org/g");
+    private static final Node P = NodeFactory.createURI("http://example.org/p");
+    private static final Node O = NodeFactory.createLiteral("o");
+
+    private static Node subject(String name) {
+        return NodeFactory.createURI("http://example.org/" + name);
+    }
+
+    @Test
+    public void testConcurrentAdds() throws InterruptedException {
+        RecordingBuffer buffer = new RecordingBuffer(1000);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            String prefix = "t" + t + "s";
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    buffer.add(G, subject(prefix + i), P, O);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        buffer.forceRun();
+        assertEquals(40000, buffer.adds.size());
+        assertFalse(buffer.isDirty(G));
+    }
+
+    @Test
+    public void testAddDoesNotWaitForScheduledWrite() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        TripleBuffer buffer = new TripleBuffer(null) {
+            @Override
+            protected void write(Mutations batch) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            buffer.schedule(scheduler, 60000);
+            buffer.add(G, subject("a"), P, O);
+            // the scheduled flush, run here so that it cannot start early
+            Thread flush = new Thread(buffer::run);
+            flush.start();
+            writing.await();
+
+            // no flush is armed, so this add arms the next one
+            Thread producer = new Thread(() -> buffer.add(G, subject("b"), P, O));
+            producer.start();
+            producer.join(5000);
+            assertFalse("add waited for the write", producer.isAlive());
+            release.countDown();
+            flush.join();
+            assertTrue(buffer.isDirty(G));
+        } finally {
+            release.countDown();
+            buffer.cancel();
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testGraphFlushWaitsForPipelinedBatch() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingBuffer buffer = blockFirstWrite(writing, release);
+        buffer.setPipeline(new WritePipeline(2));
+        try {
+            buffer.add(G, subject("a"), P, O);
+            buffer.flush();
+            writing.await();
+
+            // the delete must not land before the add still in flight
+            buffer.delete(G, subject("a"), P, O);
+            Thread sync = new Thread(() -> buffer.forceRun(G));
+            sync.start();
+            sync.join(500);
+            release.countDown();
+            sync.join();
+            assertFalse(buffer.adds.contains(Quad.create(G, subject("a"), P, O)));
+            assertTrue(buffer.deletes.contains(Quad.create(G, subject("a"), P, O)));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testFlushDoesNotWaitForSameGraphBatch() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingBuffer buffer = blockFirstWrite(writing, release);
+        buffer.setPipeline(new WritePipeline(2));
+        try {
+            buffer.add(G, subject("a"), P, O);
+            buffer.flush();
+            writing.await();
+
+            // the second batch queues behind the first without holding up the producer
+            buffer.delete(G, subject("a"), P, O);
+            Thread producer = new Thread(buffer::flush);
+            producer.start();
+            producer.join(5000);
+            assertFalse(producer.isAlive());
+            assertTrue(buffer.isDirty(G));
+
+            release.countDown();
+            buffer.forceRun();
+            assertFalse(buffer.adds.contains(Quad.create(G, subject("a"), P, O)));
+            assertTrue(buffer.deletes.contains(Quad.create(G, subject("a"), P, O)));
+            assertFalse(buffer.isDirty(G));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    // a buffer whose first write holds until released
+    private static RecordingBuffer blockFirstWrite(CountDownLatch writing, CountDownLatch release) {
+        return new RecordingBuffer(1000) {
+            @Override
+            protected void write(Mutations batch) {
+                if (writing.getCount() > 0) {
+                    writing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.write(batch);
+            }
+        };
+    }
+
+    @Test
+    public void testLastOperationWins() {
+        RecordingBuffer buffer = new RecordingBuffer(1000);
+        buffer.add(G, subject("kept"), P, O);
+        buffer.delete(G, subject("kept"), P, O);
+        buffer.add(G, subject("kept"), P, O);
+        buffer.delete(null, subject("gone"), P, O);
+        assertTrue(buffer.isDirty(G));
+        assertTrue(buffer.isDirty(null));
+        buffer.forceRun();
+        assertEquals(1, buffer.adds.size());
+        assertTrue(buffer.adds.contains(Quad.create(G, subject("kept"), P, O)));
+        assertEquals(1, buffer.deletes.size());
+    }
+
+    @Test
+    public void testFailedFlushKeepsLaterOperations() {
+        RecordingBuffer buffer = new RecordingBuffer(1000);
+        buffer.failures = 1;
+        buffer.add(G, subject("a"), P, O);
+        buffer.add(G, subject("b"), P, O);
+        try {
+            buffer.forceRun();
+            fail("the first write should fail");
+        } catch (RuntimeException e) {
+            // both adds go back in the buffer
+        }
+        buffer.delete(G, subject("b"), P, O);
+        buffer.forceRun();
+        assertEquals(1, buffer.adds.size());
+        assertTrue(buffer.adds.contains(Quad.create(G, subject("a"), P, O)));
+        assertTrue(buffer.deletes.contains(Quad.create(G, subject("b"), P, O)));
+    }
+
+    @Test
+    public void testWriteListenerHearsEveryBatch() {
+        RecordingBuffer buffer = new RecordingBuffer(1000);
+        List<Set<Node>> written = new ArrayList<>();
+        buffer.setWriteListener(written::add);
+        buffer.add(G, subject("a"), P, O);
+        buffer.delete(null, subject("b"), P, O);
+        buffer.forceRun();
+        assertEquals(1, written.size());
+        assertTrue(written.get(0).contains(G));
+        assertTrue(written.get(0).contains(TripleBuffer.DEFAULT_GRAPH_NODE));
+
+        // part of a failed batch may have landed
+        buffer.failures = 1;
+        buffer.add(G, subject("c"), P, O);
+        try {
+            buffer.forceRun(G);
+            fail("the write should fail");
+        } catch (RuntimeException e) {
+            assertEquals(2, written.size());
+        }
+    }
+
+    @Test
+    public void testEncodedAddsComeFirst() {
+        RecordingBuffer buffer = new RecordingBuffer(1000);
+        buffer.encodeAdds = true;
+        buffer.add(G, subject("a"), P, O);
+        buffer.add(G, subject("b"), P, NodeFactory.createLiteral("\u00e9t\u00e9", "fr"));
+        buffer.delete(G, subject("a"), P, O);
+        buffer.add(G, subject("c"), P, O);
+        assertTrue(buffer.isDirty(G));
+        buffer.forceRun();
+        assertEquals(2, buffer.adds.size());
+        assertTrue(buffer.adds.contains(Quad.create(G, subject("b"), P,
+                NodeFactory.createLiteral("\u00e9t\u00e9", "fr"))));
+        assertTrue(buffer.adds.contains(Quad.create(G, subject("c"), P, O)));
+        assertTrue(buffer.deletes.contains(Quad.create(G, subject("a"), P, O)));
+        assertFalse(buffer.isDirty(G));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncodedAddsRequireWriteAheadLog() {
+        new RecordingBuffer(1000).configure(new MarkLogicDatasetGraphOptions()
+                .getAddBuffer().withEncodedAdds(true));
+    }
+
+    @Test
+    public void testWriteAheadLogKeepsFailedEncodedBatch() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        BufferOptions options = new MarkLogicDatasetGraphOptions().getAddBuffer()
+                .withMaxTriples(1000).withEncodedAdds(true).withWriteAheadLog(directory);
+        RecordingBuffer failed = new RecordingBuffer(1000);
+        failed.configure(options);
+        failed.failures = 1;
+        failed.add(G, subject("a"), P, O);
+        try {
+            failed.forceRun();
+            fail("the first write should fail");
+        } catch (RuntimeException e) {
+            assertFalse(failed.isDirty(G));
+        }
+
+        // dropped from the buffer, but not from the log
+        failed.close();
+        RecordingBuffer restarted = new RecordingBuffer(1000);
+        restarted.configure(options);
+        assertTrue(restarted.isDirty(G));
+        restarted.forceRun();
+        assertTrue(restarted.adds.contains(Quad.create(G, subject("a"), P, O)));
+        restarted.close();
+    }
+
+    @Test
+    public void testEncodedQuadsSpanChunks() throws IOException {
+        EncodedQuads quads = new EncodedQuads();
+        int count = 3 * EncodedQuads.CHUNK_SIZE / 40;
+        long bytes = 0;
+        for (int i = 0; i < count; i++) {
+            bytes += quads.add(G, Triple.create(subject("s" + i), P,
+                    NodeFactory.createLiteral("\u00fcber " + i)));
+        }
+        assertEquals(count, quads.quadsCount());
+        assertEquals(bytes, quads.bytes());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        quads.write(out);
+        assertEquals(bytes, out.size());
+        DatasetGraph parsed = DatasetGraphFactory.create();
+        RDFDataMgr.read(parsed, new ByteArrayInputStream(out.toByteArray()), Lang.NQUADS);
+        assertEquals(count, parsed.getGraph(G).size());
+        quads.release();
+        assertTrue(quads.isEmpty());
+    }
+
+    private static long segments(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.toString().endsWith(".wal")).count();
+        }
+    }
+
+    @Test
+    public void testWriteAheadLogReplaysUnwrittenOperations() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        BufferOptions options = new MarkLogicDatasetGraphOptions().getAddBuffer()
+                .withMaxTriples(1000).withWriteAheadLog(directory);
+        RecordingBuffer crashed = new RecordingBuffer(1000);
+        crashed.configure(options);
+        crashed.add(G, subject("a"), P, O);
+        crashed.add(G, subject("b"), P, O);
+        crashed.delete(G, subject("b"), P, O);
+        crashed.delete(null, subject("c"), P, O);
+        assertTrue(segments(directory) > 0);
+
+        // never flushed; the next buffer on the directory takes over
+        crashed.close();
+        RecordingBuffer restarted = new RecordingBuffer(1000);
+        restarted.configure(options);
+        assertTrue(restarted.isDirty(G));
+        restarted.forceRun();
+        assertEquals(1, restarted.adds.size());
+        assertTrue(restarted.adds.contains(Quad.create(G, subject("a"), P, O)));
+        assertEquals(2, restarted.deletes.size());
+        assertTrue(restarted.deletes.contains(Quad.create(G, subject("b"), P, O)));
+
+        // the operations are written, so a second restart has none
+        restarted.close();
+        assertNothingToReplay(options);
+    }
+
+    @Test
+    public void testFailedReplayReleasesWriteAheadLog() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        BufferOptions options = new MarkLogicDatasetGraphOptions().getAddBuffer()
+                .withMaxTriples(1000).withWriteAheadLog(directory);
+        RecordingBuffer crashed = new RecordingBuffer(1000);
+        crashed.configure(options);
+        crashed.add(G, subject("a"), P, O);
+        crashed.close();
+
+        // a later segment whose delete replays before its tail fails to
+        Path corrupt = directory.resolve("000000000001-999-000000000.wal");
+        byte[] delete = EncodedQuads.line(G, new Triple(subject("a"), P, O))
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] garbage = "not a quad\n".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer records = ByteBuffer.allocate(4 + 2 * 5 + delete.length + garbage.length);
+        records.putInt(4);
+        records.putInt(delete.length + 1).put((byte) 2).put(delete);
+        records.putInt(garbage.length + 1).put((byte) 1).put(garbage);
+        Files.write(corrupt, records.array());
+        try {
+            new RecordingBuffer(1000).configure(options);
+            fail("the corrupt segment should not replay");
+        } catch (RuntimeException e) {
+            // the directory is free again
+        }
+
+        // the copies of the failed replay are not replayed after the original
+        Files.delete(corrupt);
+        RecordingBuffer restarted = new RecordingBuffer(1000);
+        restarted.configure(options);
+        restarted.forceRun();
+        assertTrue(restarted.adds.contains(Quad.create(G, subject("a"), P, O)));
+        assertTrue(restarted.deletes.isEmpty());
+        restarted.close();
+    }
+
+    private static void assertNothingToReplay(BufferOptions options) {
+        RecordingBuffer restarted = new RecordingBuffer(1000);
+        restarted.configure(options);
+        assertFalse(restarted.isDirty(G));
+        assertFalse(restarted.isDirty(null));
+        restarted.close();
+    }
+
+    @Test
+    public void testWriteAheadLogReleasesFailedBatchOnGraphFlush() {
+        Path directory = folder.getRoot().toPath();
+        BufferOptions options = new MarkLogicDatasetGraphOptions().getAddBuffer()
+                .withMaxTriples(1000).withWriteAheadLog(directory);
+        RecordingBuffer buffer = new RecordingBuffer(1000);
+        buffer.configure(options);
+        buffer.failures = 1;
+        buffer.add(G, subject("a"), P, O);
+        try {
+            buffer.forceRun();
+            fail("the first write should fail");
+        } catch (RuntimeException e) {
+            // the add goes back in the buffer
+        }
+        // written by a flush of its graph alone, then an empty flush
+        buffer.forceRun(G);
+        buffer.forceRun();
+        assertTrue(buffer.adds.contains(Quad.create(G, subject("a"), P, O)));
+        buffer.close();
+        assertNothingToReplay(options);
+    }
+
+    @Test
+    public void testWriteAheadLogKeepsSegmentsOpenAcrossFlushes() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        RecordingBuffer buffer = new RecordingBuffer(1000);
+        buffer.configure(new MarkLogicDatasetGraphOptions().getAddBuffer()
+                .withMaxTriples(1000).withWriteAheadLog(directory));
+        for (int i = 0; i < 10; i++) {
+            buffer.add(G, subject("a"), P, NodeFactory.createLiteral("o" + i));
+            buffer.forceRun();
+        }
+        assertEquals(10, buffer.adds.size());
+        assertTrue(segments(directory) <= 10);
+        long open = segments(directory);
+        for (int i = 0; i < 10; i++) {
+            buffer.add(G, subject("a"), P, NodeFactory.createLiteral("o" + i));
+            buffer.forceRun();
+        }
+        assertEquals("flushes start no new segments", open, segments(directory));
+        buffer.close();
+    }
+
+    @Test
+    public void testWriteAheadLogDeletesFullWrittenSegments() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        WriteAheadLog wal = new WriteAheadLog(directory, 1, false);
+        StringBuilder large = new StringBuilder();
+        while (large.length() < WriteAheadLog.SEGMENT_SIZE / 3) {
+            large.append("large literal ");
+        }
+        Node o = NodeFactory.createLiteral(large.toString());
+        List<WriteAheadLog.Segment> claimed = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            wal.append(0, true, G, Triple.create(subject("s" + i), P, o));
+        }
+        claimed.addAll(wal.claim(0));
+        assertEquals(2, claimed.size());
+        assertEquals(2, segments(directory));
+
+        wal.release(claimed);
+        // the full segment is gone; the current one stays open
+        assertEquals(1, segments(directory));
+        assertFalse(Files.exists(claimed.get(0).getPath()));
+        List<Quad> replayed = new ArrayList<>();
+        WriteAheadLog.replay(claimed.get(1).getPath(), (add, quad) -> replayed.add(quad));
+        assertTrue("written records are not replayed", replayed.isEmpty());
+        wal.close();
+    }
+
+    @Test
+    public void testWriteAheadLogDirectoryIsExclusive() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        BufferOptions options = new MarkLogicDatasetGraphOptions().getAddBuffer()
+                .withMaxTriples(1000).withWriteAheadLog(directory);
+        RecordingBuffer first = new RecordingBuffer(1000);
+        first.configure(options);
+        first.add(G, subject("a"), P, O);
+        long live = segments(directory);
+
+        RecordingBuffer second = new RecordingBuffer(1000);
+        try {
+            second.configure(options);
+            fail("the directory is in use");
+        } catch (MarkLogicJenaException e) {
+            // the first buffer's segments are left alone
+            assertEquals(live, segments(directory));
+            assertFalse(second.isDirty(G));
+        }
+        first.add(G, subject("b"), P, O);
+        first.forceRun();
+        assertEquals(2, first.adds.size());
+
+        first.close();
+        RecordingBuffer third = new RecordingBuffer(1000);
+        third.configure(options);
+        third.close();
+    }
+
+    @Test
+    public void testWriteAheadLogKeepsFailedBatch() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        RecordingBuffer buffer = new RecordingBuffer(1000);
+        buffer.configure(new MarkLogicDatasetGraphOptions().getAddBuffer()
+                .withMaxTriples(1000).withWriteAheadLog(directory));
+        buffer.failures = 1;
+        buffer.add(G, subject("a"), P, O);
+        try {
+            buffer.forceRun();
+            fail("the first write should fail");
+        } catch (RuntimeException e) {
+            assertTrue(segments(directory) > 0);
+        }
+        buffer.add(G, subject("b"), P, O);
+        buffer.forceRun();
+        assertEquals(2, buffer.adds.size());
+        buffer.close();
+        assertNothingToReplay(new MarkLogicDatasetGraphOptions().getAddBuffer()
+                .withMaxTriples(1000).withWriteAheadLog(directory));
+    }
+}
@@ -20,6 +20,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import org.junit.Before;
@@ -46,6 +47,8 @@ import com.marklogic.client.ResourceNotFoundException;
 import com.marklogic.client.semantics.SPARQLRuleset;
 import com.marklogic.semantics.jena.JenaTestBase;
 import com.marklogic.semantics.jena.MarkLogicDatasetGraph;
+import com.marklogic.semantics.jena.client.JenaDatabaseClient;
+import com.marklogic.semantics.jena.client.SelectResultFormat;
 
 public class MarkLogicQueryEngineTest extends JenaTestBase {
 
@@ -108,6 +111,27 @@ public class MarkLogicQueryEngineTest extends JenaTestBase {
                 .size() > 0);
     }
 
+    @Test
+    public void testStreamingConstruct() {
+        MarkLogicDatasetGraph dsg = (MarkLogicDatasetGraph) ds.asDatasetGraph();
+        Query query = QueryFactory
+                .create("PREFIX : <http://example.org/> CONSTRUCT { :r100 ?p ?o } WHERE { :r1 ?p ?o }");
+        Model expected = QueryExecutionFactory.create(query, ds).execConstruct();
+
+        Graph streamed = dsg.construct(query, GraphFactory.createDefaultGraph());
+        assertTrue("Streamed CONSTRUCT matches template CONSTRUCT",
+                expected.getGraph().isIsomorphicWith(streamed));
+
+        Iterator<Triple> triples = dsg.constructTriples(query);
+        int count = 0;
+        while (triples.hasNext()) {
+            assertEquals(NodeFactory.createURI("http://example.org/r100"),
+                    triples.next().getSubject());
+            count++;
+        }
+        assertEquals(expected.size(), count);
+    }
+
     @Test
     public void testPagination() {
         Query query = QueryFactory
@@ -224,6 +248,26 @@ public class MarkLogicQueryEngineTest extends JenaTestBase {
 
     }
 
+    @Test
+    public void testSelectKeepsTermsWithCsv() {
+        JenaDatabaseClient client = ((MarkLogicDatasetGraph) ds.asDatasetGraph())
+                .getDatabaseClient();
+        client.setSelectResultFormat(SelectResultFormat.CSV);
+        try {
+            String query = "SELECT ?s ?o where { ?s <http://example.org/p1> ?o }";
+            QuerySolutionMap binding = new QuerySolutionMap();
+            binding.add("s",
+                    ResourceFactory.createResource("http://example.org/r1"));
+            QueryExecution exec = QueryExecutionFactory.create(query, ds, binding);
+            QuerySolution result = exec.execSelect().next();
+            assertTrue("IRI kept", result.get("s").isURIResource());
+            assertTrue("literal kept", result.get("o").isLiteral());
+            assertEquals("string value 0", result.get("o").asLiteral().getValue());
+        } finally {
+            client.setSelectResultFormat(SelectResultFormat.XML);
+        }
+    }
+
     private List<String> project(ResultSet results, String key) {
         List<String> strings = new ArrayList<String>();
         while (results.hasNext()) {